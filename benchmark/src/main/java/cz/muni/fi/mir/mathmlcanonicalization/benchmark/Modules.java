@@ -0,0 +1,61 @@
+/**
+ * Copyright 2013 MIR@MU Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cz.muni.fi.mir.mathmlcanonicalization.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.jdom2.Document;
+import org.jdom2.Element;
+import org.jdom2.JDOMException;
+import org.jdom2.input.SAXBuilder;
+
+import cz.muni.fi.mir.mathmlcanonicalization.Settings;
+import cz.muni.fi.mir.mathmlcanonicalization.modules.Module;
+
+/**
+ * Modules configured by the default configuration.
+ */
+final class Modules {
+
+    private static final String MODULES_PACKAGE = "cz.muni.fi.mir.mathmlcanonicalization.modules.";
+
+    private Modules() {
+    }
+
+    /**
+     * Creates the module with properties set as in the default configuration.
+     *
+     * @param name simple class name of the module
+     * @return configured module
+     */
+    static Module configured(String name) throws IOException, JDOMException, ReflectiveOperationException {
+        final Module module = (Module) Class.forName(MODULES_PACKAGE + name).newInstance();
+        final Document config;
+        try (InputStream in = Settings.getStreamFromProperty("defaultConfig")) {
+            config = new SAXBuilder().build(in);
+        }
+        for (Element moduleElement : config.getRootElement().getChildren("module")) {
+            if (name.equals(moduleElement.getAttributeValue("name"))) {
+                for (Element property : moduleElement.getChildren("property")) {
+                    module.setProperty(property.getAttributeValue("name"), property.getText());
+                }
+            }
+        }
+        return module;
+    }
+
+}
@@ -0,0 +1,79 @@
+/**
+ * Copyright 2013 MIR@MU Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cz.muni.fi.mir.mathmlcanonicalization.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import cz.muni.fi.mir.mathmlcanonicalization.MathMLGenerator;
+import cz.muni.fi.mir.mathmlcanonicalization.MathMLCanonicalizer;
+
+/**
+ * Throughput of the default canonicalization pipeline from input bytes to
+ * output bytes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PipelineBenchmark {
+
+    @Param({"40", "400", "4000"})
+    public int size;
+
+    @Param({"1", "10"})
+    public int depth;
+
+    @Param({"1"})
+    public long seed;
+
+    @Param({"false", "true"})
+    public boolean injectDTD;
+
+    private byte[] input;
+    private MathMLCanonicalizer canonicalizer;
+
+    @Setup
+    public void setup() {
+        input = new MathMLGenerator(seed).setDepth(depth).generateBytes(size);
+        final MathMLCanonicalizer configured = MathMLCanonicalizer.getDefaultCanonicalizer();
+        configured.setEnforcingXHTMLPlusMathMLDTD(injectDTD);
+        canonicalizer = configured.compile();
+    }
+
+    @Benchmark
+    public byte[] defaultCanonicalizer() throws Exception {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream(2 * input.length);
+        canonicalizer.canonicalize(new ByteArrayInputStream(input), output);
+        return output.toByteArray();
+    }
+
+}
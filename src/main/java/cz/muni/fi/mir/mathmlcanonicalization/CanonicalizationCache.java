@@ -0,0 +1,45 @@
+/**
+ * Copyright 2013 MIR@MU Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cz.muni.fi.mir.mathmlcanonicalization;
+
+/**
+ * Storage of canonical outputs used by {@link MathMLCanonicalizer} to skip
+ * canonicalization of already seen inputs.
+ *
+ * Keys are computed by the canonicalizer from the input and its configuration
+ * (see {@link MathMLCanonicalizer#setCache(CanonicalizationCache)}).
+ * Implementations have to be safe for concurrent use.
+ */
+public interface CanonicalizationCache {
+
+    /**
+     * Gets the canonical output stored under the key
+     *
+     * @param key hexadecimal hash of the input and configuration
+     * @return canonical output or null if not cached
+     */
+    public byte[] get(String key);
+
+    /**
+     * Stores the canonical output under the key. The cache may decide not to
+     * keep it.
+     *
+     * @param key hexadecimal hash of the input and configuration
+     * @param value canonical output, must not be modified afterwards
+     */
+    public void put(String key, byte[] value);
+
+}
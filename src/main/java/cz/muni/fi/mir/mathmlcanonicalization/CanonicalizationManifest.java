@@ -0,0 +1,191 @@
+/**
+ * Copyright 2013 MIR@MU Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cz.muni.fi.mir.mathmlcanonicalization;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Manifest of files overwritten by canonical outputs, used to skip files
+ * which have not changed since.
+ *
+ * For each file, its path, size, last modification time, SHA-256 of its
+ * content, the configuration fingerprint and the time it was recorded are
+ * kept as a line of tab separated values. A file is unchanged when it has the
+ * same fingerprint and either the same size and modification time, or the
+ * same content hash. Outputs of canonicalization are canonical, so the file
+ * does not need to be canonicalized again then.
+ *
+ * File systems with coarse timestamps cannot tell apart rewrites within the
+ * same tick. The modification time is therefore relied on only when the file
+ * was recorded later than {@link #MODIFICATION_TIME_GRANULARITY} after its
+ * modification, otherwise the content hash is compared. This is the case of
+ * the files just overwritten, so they are hashed once when checked again.
+ */
+class CanonicalizationManifest {
+
+    private static final Logger LOGGER = Logger.getLogger(CanonicalizationManifest.class.getName());
+    private static final String SEPARATOR = "\t";
+    /**
+     * The coarsest modification time resolution of the common file systems
+     * (FAT) in milliseconds.
+     */
+    static final long MODIFICATION_TIME_GRANULARITY = 2000;
+
+    private final File manifestFile;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * Loads the manifest from the file, the manifest is empty if the file does
+     * not exist.
+     *
+     * @param manifestFile file of the manifest
+     * @throws IOException when the manifest cannot be read
+     */
+    CanonicalizationManifest(File manifestFile) throws IOException {
+        assert manifestFile != null;
+        this.manifestFile = manifestFile;
+        if (!manifestFile.exists()) {
+            return;
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(manifestFile), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                final String[] values = line.split(SEPARATOR);
+                if (values.length != 5 && values.length != 6) {
+                    LOGGER.log(Level.WARNING, "Invalid manifest line skipped: {0}", line);
+                    continue;
+                }
+                try {
+                    final long modified = Long.parseLong(values[2]);
+                    // the time of recording was not kept by the former versions
+                    final long recorded = values.length == 6 ? Long.parseLong(values[5]) : modified;
+                    entries.put(values[0], new Entry(Long.parseLong(values[1]), modified,
+                            values[3], values[4], recorded));
+                } catch (NumberFormatException ex) {
+                    LOGGER.log(Level.WARNING, "Invalid manifest line skipped: {0}", line);
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds out if the file was canonicalized by the configuration and not
+     * changed since.
+     *
+     * @param file file to check
+     * @param fingerprint configuration fingerprint
+     * @return true if the file does not need to be canonicalized
+     * @throws IOException when the file cannot be read
+     */
+    boolean isUnchanged(File file, String fingerprint) throws IOException {
+        final String path = file.getCanonicalPath();
+        final Entry entry = entries.get(path);
+        if (entry == null || !entry.fingerprint.equals(fingerprint)) {
+            return false;
+        }
+        final long size = file.length();
+        final long modified = file.lastModified();
+        if (entry.size == size && entry.modified == modified
+                && entry.recorded - modified >= MODIFICATION_TIME_GRANULARITY) {
+            return true;
+        }
+        if (entry.size != size || !entry.hash.equals(hash(file))) {
+            return false;
+        }
+        // touched only or modified too shortly before it was recorded
+        entries.put(path, new Entry(size, modified, entry.hash, fingerprint, System.currentTimeMillis()));
+        return true;
+    }
+
+    /**
+     * Records the file content after canonicalization.
+     *
+     * @param file overwritten file
+     * @param content its new content
+     * @param fingerprint configuration fingerprint
+     * @throws IOException when the file cannot be accessed
+     */
+    void update(File file, byte[] content, String fingerprint) throws IOException {
+        entries.put(file.getCanonicalPath(), new Entry(file.length(), file.lastModified(),
+                MathMLCanonicalizer.toHex(MathMLCanonicalizer.sha256().digest(content)), fingerprint,
+                System.currentTimeMillis()));
+    }
+
+    /**
+     * Writes the manifest to its file, replacing the previous one.
+     *
+     * @throws IOException when the manifest cannot be written
+     */
+    void save() throws IOException {
+        final File temporary = new File(manifestFile.getPath() + ".tmp");
+        try (Writer writer = new OutputStreamWriter(Files.newOutputStream(temporary.toPath()), StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, Entry> entry : new TreeMap<>(entries).entrySet()) {
+                final Entry value = entry.getValue();
+                writer.write(entry.getKey() + SEPARATOR + value.size + SEPARATOR + value.modified
+                        + SEPARATOR + value.hash + SEPARATOR + value.fingerprint + SEPARATOR + value.recorded
+                        + "\n");
+            }
+        }
+        Files.move(temporary.toPath(), manifestFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static String hash(File file) throws IOException {
+        final MessageDigest digest = MathMLCanonicalizer.sha256();
+        final byte[] buffer = new byte[8192];
+        try (InputStream input = new FileInputStream(file)) {
+            int count;
+            while ((count = input.read(buffer)) != -1) {
+                digest.update(buffer, 0, count);
+            }
+        }
+        return MathMLCanonicalizer.toHex(digest.digest());
+    }
+
+    private static class Entry {
+
+        final long size;
+        final long modified;
+        final String hash;
+        final String fingerprint;
+        final long recorded;
+
+        Entry(long size, long modified, String hash, String fingerprint, long recorded) {
+            this.size = size;
+            this.modified = modified;
+            this.hash = hash;
+            this.fingerprint = fingerprint;
+            this.recorded = recorded;
+        }
+    }
+
+}
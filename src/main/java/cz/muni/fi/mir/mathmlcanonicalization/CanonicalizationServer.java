@@ -0,0 +1,232 @@
+/**
+ * Copyright 2013 MIR@MU Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cz.muni.fi.mir.mathmlcanonicalization;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Server canonicalizing documents sent over TCP connections from the local
+ * machine, so that clients do not pay for JVM startup and pipeline
+ * initialization.
+ *
+ * Each connection can carry any number of requests, connections are served
+ * concurrently. A request is a 4 byte big-endian length followed by the
+ * document bytes. A response is a status byte ({@link #STATUS_OK} or
+ * {@link #STATUS_ERROR}), a 4 byte big-endian length and either the canonical
+ * document or the error message in UTF-8.
+ */
+public class CanonicalizationServer implements Closeable {
+
+    /**
+     * Response status of canonicalized document.
+     */
+    public static final int STATUS_OK = 0;
+    /**
+     * Response status of document which cannot be canonicalized.
+     */
+    public static final int STATUS_ERROR = 1;
+
+    private static final Logger LOGGER = Logger.getLogger(CanonicalizationServer.class.getName());
+    // longer requests are refused and their connection closed
+    private static final int MAX_REQUEST_LENGTH = 256 * 1024 * 1024;
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 30;
+
+    private final MathMLCanonicalizer canonicalizer;
+    private final ServerSocket serverSocket;
+    private final ExecutorService connectionHandlers = Executors.newCachedThreadPool();
+    private final Set<Socket> connections = Collections.newSetFromMap(new IdentityHashMap<Socket, Boolean>());
+    private volatile boolean closed = false;
+
+    /**
+     * Creates server listening on the loopback interface.
+     *
+     * @param canonicalizer canonicalizer used for all the requests, it is
+     * compiled if it is not
+     * @param port TCP port to listen on, 0 for any free port
+     * @throws IOException when the port cannot be bound
+     */
+    public CanonicalizationServer(MathMLCanonicalizer canonicalizer, int port) throws IOException {
+        if (canonicalizer == null) {
+            throw new NullPointerException("canonicalizer");
+        }
+        this.canonicalizer = canonicalizer.compile();
+        serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+    }
+
+    /**
+     * @return TCP port the server listens on
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Accepts connections until the server is closed and all the requests
+     * being processed are answered.
+     *
+     * @throws IOException when accepting of connections fails
+     */
+    public void serve() throws IOException {
+        LOGGER.log(Level.INFO, "Listening on {0}", serverSocket.getLocalSocketAddress());
+        try {
+            while (!closed) {
+                final Socket socket;
+                try {
+                    socket = serverSocket.accept();
+                } catch (SocketException ex) {
+                    if (closed) {
+                        break;
+                    }
+                    throw ex;
+                }
+                synchronized (connections) {
+                    if (closed) {
+                        socket.close();
+                        break;
+                    }
+                    connections.add(socket);
+                }
+                connectionHandlers.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        handleConnection(socket);
+                    }
+                });
+            }
+        } finally {
+            close();
+            connectionHandlers.shutdown();
+            try {
+                if (!connectionHandlers.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                    LOGGER.log(Level.WARNING, "Connections not finished in time");
+                    connectionHandlers.shutdownNow();
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                connectionHandlers.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Stops accepting connections and requests. Requests already received are
+     * still answered.
+     *
+     * @throws IOException when the server socket cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (connections) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            for (Socket socket : connections) {
+                try {
+                    // waiting for the next request ends
+                    socket.shutdownInput();
+                } catch (IOException ex) {
+                    LOGGER.log(Level.FINE, "Connection already closed", ex);
+                }
+            }
+        }
+        serverSocket.close();
+    }
+
+    private void handleConnection(final Socket socket) {
+        try {
+            socket.setTcpNoDelay(true);
+            final DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            final DataOutputStream output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            while (!closed) {
+                final byte[] request = readRequest(input);
+                if (request == null) {
+                    break;
+                }
+                final ByteArrayOutputStream result = new ByteArrayOutputStream();
+                int status = STATUS_OK;
+                try {
+                    canonicalizer.canonicalize(new ByteArrayInputStream(request), result);
+                } catch (Exception ex) {
+                    LOGGER.log(Level.FINE, "Request cannot be canonicalized", ex);
+                    status = STATUS_ERROR;
+                    result.reset();
+                    result.write(String.valueOf(ex.getMessage()).getBytes(StandardCharsets.UTF_8));
+                }
+                output.writeByte(status);
+                output.writeInt(result.size());
+                result.writeTo(output);
+                output.flush();
+            }
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "Connection failed", ex);
+        } finally {
+            synchronized (connections) {
+                connections.remove(socket);
+            }
+            try {
+                socket.close();
+            } catch (IOException ex) {
+                LOGGER.log(Level.FINE, "Connection cannot be closed", ex);
+            }
+        }
+    }
+
+    /**
+     * Reads the next request or returns null when the client finished.
+     */
+    private static byte[] readRequest(final DataInputStream input) throws IOException {
+        final int first = input.read();
+        if (first == -1) {
+            return null;
+        }
+        final int length;
+        try {
+            length = (first << 24) | (input.readUnsignedByte() << 16)
+                    | (input.readUnsignedByte() << 8) | input.readUnsignedByte();
+        } catch (EOFException ex) {
+            throw new IOException("incomplete request", ex);
+        }
+        if (length < 0 || length > MAX_REQUEST_LENGTH) {
+            throw new IOException("invalid request length " + length);
+        }
+        final byte[] request = new byte[length];
+        input.readFully(request);
+        return request;
+    }
+
+}
@@ -0,0 +1,285 @@
+/**
+ * Copyright 2013 MIR@MU Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cz.muni.fi.mir.mathmlcanonicalization;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Canonicalization cache persisted in a directory, so that it can be reused
+ * by later runs.
+ *
+ * The outputs are appended to a single segment file as records of the key,
+ * output length, CRC-32 checksum of both and of the output and output bytes.
+ * Only the index of record positions is kept in memory, it is rebuilt by
+ * scanning the segment when the cache is opened. The segment is truncated
+ * then at the first incomplete record or record not matching its checksum,
+ * e.g. written partially by an interrupted run. Entries are never removed,
+ * the directory can be deleted to clear the cache. The directory can be used
+ * by a single cache instance at a time.
+ */
+public class DiskCanonicalizationCache implements CanonicalizationCache, Closeable {
+
+    private static final Logger LOGGER = Logger.getLogger(DiskCanonicalizationCache.class.getName());
+    private static final String SEGMENT_FILENAME = "canonicalization-cache.seg";
+    private static final byte[] MAGIC = "MathMLCan cache 2\n".getBytes(StandardCharsets.US_ASCII);
+    // segments of the previous versions are discarded
+    private static final byte[] MAGIC_PREFIX = "MathMLCan cache ".getBytes(StandardCharsets.US_ASCII);
+    // SHA-256 in hexadecimal
+    private static final int KEY_LENGTH = 64;
+    private static final int CHECKSUM_OFFSET = KEY_LENGTH + 4;
+    private static final int RECORD_HEADER_LENGTH = CHECKSUM_OFFSET + 4;
+
+    private final FileChannel segment;
+    private final FileLock lock;
+    // key -> position of the output in the segment and its length
+    private final Map<String, long[]> index = new ConcurrentHashMap<>();
+    private long size;
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    /**
+     * Opens the cache in the directory, creating it if necessary.
+     *
+     * @param directory directory of the cache
+     * @throws IOException when the cache cannot be opened or is corrupted
+     */
+    public DiskCanonicalizationCache(File directory) throws IOException {
+        if (directory == null) {
+            throw new NullPointerException("directory");
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("cannot create cache directory " + directory);
+        }
+        segment = FileChannel.open(new File(directory, SEGMENT_FILENAME).toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            lock = segment.tryLock();
+            if (lock == null) {
+                throw new IOException("cache directory " + directory + " is used by another process");
+            }
+            readIndex();
+        } catch (IOException | RuntimeException ex) {
+            segment.close();
+            throw ex;
+        }
+    }
+
+    private void readIndex() throws IOException {
+        if (segment.size() > 0) {
+            final ByteBuffer magic = ByteBuffer.allocate((int) Math.min(MAGIC.length, segment.size()));
+            readFully(magic, 0);
+            if (magic.capacity() < MAGIC.length
+                    && Arrays.equals(magic.array(), Arrays.copyOf(MAGIC, magic.capacity()))) {
+                // interrupted while the header was written
+                LOGGER.log(Level.WARNING, "Discarding cache with incomplete header");
+                segment.truncate(0);
+            } else if (!Arrays.equals(Arrays.copyOf(magic.array(), MAGIC_PREFIX.length), MAGIC_PREFIX)) {
+                throw new IOException("not a canonicalization cache segment");
+            } else if (!Arrays.equals(magic.array(), MAGIC)) {
+                LOGGER.log(Level.WARNING, "Discarding cache of another version");
+                segment.truncate(0);
+            }
+        }
+        if (segment.size() == 0) {
+            writeFully(ByteBuffer.wrap(MAGIC), 0);
+            size = MAGIC.length;
+            return;
+        }
+        final long length = segment.size();
+        final ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_LENGTH);
+        ByteBuffer value = ByteBuffer.allocate(0);
+        long position = MAGIC.length;
+        while (position + RECORD_HEADER_LENGTH <= length) {
+            header.clear();
+            readFully(header, position);
+            final int valueLength = header.getInt(KEY_LENGTH);
+            final long valuePosition = position + RECORD_HEADER_LENGTH;
+            if (valueLength < 0 || valuePosition + valueLength > length) {
+                break;
+            }
+            if (value.capacity() < valueLength) {
+                value = ByteBuffer.allocate(valueLength);
+            }
+            value.clear().limit(valueLength);
+            readFully(value, valuePosition);
+            if (header.getInt(CHECKSUM_OFFSET) != checksum(header.array(), value.array(), valueLength)) {
+                break;
+            }
+            final String key = new String(header.array(), 0, KEY_LENGTH, StandardCharsets.US_ASCII);
+            index.put(key, new long[]{valuePosition, valueLength});
+            position = valuePosition + valueLength;
+        }
+        if (position < length) {
+            LOGGER.log(Level.WARNING, "Discarding incomplete or corrupted records at the end of the cache");
+            segment.truncate(position);
+        }
+        size = position;
+        LOGGER.log(Level.FINE, "{0} cached outputs found", index.size());
+    }
+
+    @Override
+    public byte[] get(String key) {
+        if (key == null) {
+            throw new NullPointerException("key");
+        }
+        final long[] entry = index.get(key);
+        if (entry == null) {
+            missCount.incrementAndGet();
+            return null;
+        }
+        final ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_LENGTH + (int) entry[1]);
+        try {
+            readFully(record, entry[0] - RECORD_HEADER_LENGTH);
+        } catch (IOException ex) {
+            throw new UncheckedIOException("cannot read the cache", ex);
+        }
+        final byte[] value = Arrays.copyOfRange(record.array(), RECORD_HEADER_LENGTH, record.capacity());
+        if (record.getInt(CHECKSUM_OFFSET) != checksum(record.array(), value, value.length)) {
+            LOGGER.log(Level.WARNING, "Cached output {0} corrupted", key);
+            index.remove(key, entry);
+            missCount.incrementAndGet();
+            return null;
+        }
+        hitCount.incrementAndGet();
+        return value;
+    }
+
+    @Override
+    public void put(String key, byte[] value) {
+        if (key == null) {
+            throw new NullPointerException("key");
+        }
+        if (value == null) {
+            throw new NullPointerException("value");
+        }
+        final byte[] keyBytes = key.getBytes(StandardCharsets.US_ASCII);
+        if (keyBytes.length != KEY_LENGTH) {
+            throw new IllegalArgumentException("key is not a SHA-256 hash");
+        }
+        final ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_LENGTH + value.length);
+        record.put(keyBytes).putInt(value.length);
+        record.putInt(checksum(record.array(), value, value.length)).put(value);
+        record.flip();
+        synchronized (this) {
+            if (index.containsKey(key)) {
+                return;
+            }
+            try {
+                writeFully(record, size);
+            } catch (IOException ex) {
+                throw new UncheckedIOException("cannot write the cache", ex);
+            }
+            index.put(key, new long[]{size + RECORD_HEADER_LENGTH, value.length});
+            size += record.capacity();
+        }
+    }
+
+    /**
+     * @return number of cached outputs
+     */
+    public int getEntryCount() {
+        return index.size();
+    }
+
+    /**
+     * @return size of the segment file in bytes
+     */
+    public synchronized long getBytes() {
+        return size;
+    }
+
+    /**
+     * @return number of lookups which found the output
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * @return number of lookups which did not find the output
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * Writes the cached outputs to the disk and closes the cache.
+     *
+     * @throws IOException when the cache cannot be written
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (!segment.isOpen()) {
+            return;
+        }
+        try {
+            segment.force(false);
+            lock.release();
+        } finally {
+            segment.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "DiskCanonicalizationCache{entries=" + index.size() + ", bytes=" + getBytes()
+                + ", hits=" + hitCount + ", misses=" + missCount + "}";
+    }
+
+    /**
+     * Computes the checksum of the key and length in the record header and of
+     * the value.
+     */
+    private static int checksum(byte[] header, byte[] value, int valueLength) {
+        final CRC32 crc = new CRC32();
+        crc.update(header, 0, CHECKSUM_OFFSET);
+        crc.update(value, 0, valueLength);
+        return (int) crc.getValue();
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            final int count = segment.read(buffer, position);
+            if (count < 0) {
+                throw new IOException("unexpected end of the cache segment");
+            }
+            position += count;
+        }
+        buffer.flip();
+    }
+
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += segment.write(buffer, position);
+        }
+    }
+
+}
@@ -0,0 +1,112 @@
+/**
+ * Copyright 2013 MIR@MU Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cz.muni.fi.mir.mathmlcanonicalization;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import org.jdom2.Document;
+import org.jdom2.Element;
+
+import cz.muni.fi.mir.mathmlcanonicalization.modules.ElementVisitorModule;
+import cz.muni.fi.mir.mathmlcanonicalization.modules.ModuleException;
+
+/**
+ * Runs several element visitor modules in a single post-order walk.
+ *
+ * Each element is visited by the modules in their order. Elements which are
+ * created by a module while visiting their parent are walked again by the
+ * following modules only, elements which were moved are not visited again.
+ * The result is therefore the same as if the modules were executed one after
+ * another.
+ */
+final class FusedTraversal {
+
+    private final List<ElementVisitorModule> modules;
+    // elements already visited by all the modules
+    private final Set<Element> visited = Collections.newSetFromMap(new IdentityHashMap<Element, Boolean>());
+
+    private FusedTraversal(List<ElementVisitorModule> modules) {
+        this.modules = modules;
+    }
+
+    /**
+     * Executes the modules on the document in a single walk.
+     *
+     * @param doc document to be modified
+     * @param modules modules in order of execution
+     * @throws ModuleException when some module cannot transform the input
+     */
+    static void execute(Document doc, List<ElementVisitorModule> modules) throws ModuleException {
+        if (doc == null) {
+            throw new NullPointerException("doc");
+        }
+        if (modules.isEmpty()) {
+            return;
+        }
+        new FusedTraversal(modules).walk(doc.getRootElement(), 0);
+    }
+
+    /**
+     * Visits the subtree of the element by the modules starting at the given
+     * index.
+     */
+    private void walk(Element root, int firstModule) throws ModuleException {
+        assert root != null;
+        final Deque<Element> elements = new ArrayDeque<>();
+        final Deque<Integer> nextChild = new ArrayDeque<>();
+        elements.push(root);
+        nextChild.push(0);
+        while (!elements.isEmpty()) {
+            final Element element = elements.peek();
+            final int index = nextChild.pop();
+            // visiting a child changes only its own content, not this list
+            final List<Element> children = element.getChildren();
+            if (index < children.size()) {
+                nextChild.push(index + 1);
+                final Element child = children.get(index);
+                if (!visited.contains(child)) {
+                    elements.push(child);
+                    nextChild.push(0);
+                }
+                continue;
+            }
+            elements.pop();
+            visit(element, firstModule);
+        }
+    }
+
+    private void visit(Element element, int firstModule) throws ModuleException {
+        for (int i = firstModule; i < modules.size(); i++) {
+            modules.get(i).visit(element);
+            if (i + 1 < modules.size()) {
+                // let the following modules visit the newly created children
+                for (Element child : new ArrayList<>(element.getChildren())) {
+                    if (!visited.contains(child)) {
+                        walk(child, i + 1);
+                    }
+                }
+            }
+        }
+        visited.add(element);
+    }
+
+}
@@ -20,8 +20,14 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.TreeSet;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -38,18 +44,28 @@ import org.apache.commons.io.IOUtils;
 import org.jdom2.Document;
 import org.jdom2.JDOMException;
 import org.jdom2.input.SAXBuilder;
+import org.jdom2.input.StAXStreamBuilder;
 import org.jdom2.output.XMLOutputter;
 import org.xml.sax.SAXException;
 
 import cz.muni.fi.mir.mathmlcanonicalization.modules.DOMModule;
+import cz.muni.fi.mir.mathmlcanonicalization.modules.ElementVisitorModule;
 import cz.muni.fi.mir.mathmlcanonicalization.modules.Module;
+import cz.muni.fi.mir.mathmlcanonicalization.modules.ModuleCounters;
 import cz.muni.fi.mir.mathmlcanonicalization.modules.ModuleException;
+import cz.muni.fi.mir.mathmlcanonicalization.modules.StreamFilterModule;
 import cz.muni.fi.mir.mathmlcanonicalization.modules.StreamModule;
 import cz.muni.fi.mir.mathmlcanonicalization.utils.DTDManipulator;
+import cz.muni.fi.mir.mathmlcanonicalization.utils.NamedEntityInputStream;
+import cz.muni.fi.mir.mathmlcanonicalization.utils.XMLStreamCopier;
 
 /**
  * An input class for MathML canonicalization.
  *
+ * Instances are not thread-safe while being configured. Use {@link #compile()}
+ * to obtain an immutable canonicalizer which can be shared by multiple
+ * threads.
+ *
  * @author David Formanek
  */
 public final class MathMLCanonicalizer {
@@ -59,6 +75,15 @@ public final class MathMLCanonicalizer {
     private List<StreamModule> streamModules = new LinkedList<>();
     private List<DOMModule> domModules = new LinkedList<>();
     private boolean enforcingXHTMLPlusMathMLDTD = false;
+    private boolean resolvingNamedEntities = false;
+    private boolean fusingDOMModules = false;
+    private CanonicalizationCache cache = null;
+    private PipelineListener pipelineListener = null;
+    private boolean compiled = false;
+    // global settings frozen by compile(), null if not compiled
+    private Settings.Snapshot settings = null;
+    // fingerprint of the compiled canonicalizer, computed on first use
+    private volatile String compiledFingerprint = null;
 
     // TODO: refactoring
     /**
@@ -81,6 +106,23 @@ public final class MathMLCanonicalizer {
     public MathMLCanonicalizer() {
     }
 
+    /**
+     * Initializes compiled canonicalizer with the given modules
+     */
+    private MathMLCanonicalizer(List<StreamModule> streamModules, List<DOMModule> domModules,
+            boolean enforcingXHTMLPlusMathMLDTD, boolean resolvingNamedEntities, boolean fusingDOMModules,
+            CanonicalizationCache cache, PipelineListener pipelineListener, Settings.Snapshot settings) {
+        this.streamModules = Collections.unmodifiableList(streamModules);
+        this.domModules = Collections.unmodifiableList(domModules);
+        this.enforcingXHTMLPlusMathMLDTD = enforcingXHTMLPlusMathMLDTD;
+        this.resolvingNamedEntities = resolvingNamedEntities;
+        this.fusingDOMModules = fusingDOMModules;
+        this.cache = cache;
+        this.pipelineListener = pipelineListener;
+        this.settings = settings;
+        this.compiled = true;
+    }
+
     /**
      * Initializes canonicalizer using configuration file
      *
@@ -110,11 +152,13 @@ public final class MathMLCanonicalizer {
      *
      * @param module the module to be used in canonicalization
      * @return the canonizer object to allow adding more modules at once
+     * @throws IllegalStateException when the canonicalizer is compiled
      */
     public MathMLCanonicalizer addModule(Module module) {
         if (module == null) {
             throw new NullPointerException("module");
         }
+        checkNotCompiled();
         if (module instanceof StreamModule) {
             if (module instanceof DOMModule) {
                 LOGGER.log(Level.INFO, "Module is stream and DOM module at the"
@@ -137,6 +181,7 @@ public final class MathMLCanonicalizer {
      *
      * @param moduleName the name of the module class
      * @return the canonizer object to allow adding more modules at once
+     * @throws IllegalStateException when the canonicalizer is compiled
      */
     public MathMLCanonicalizer addModule(String moduleName) {
         if (moduleName == null) {
@@ -145,6 +190,7 @@ public final class MathMLCanonicalizer {
         if (moduleName.isEmpty()) {
             throw new IllegalArgumentException("empty moduleName");
         }
+        checkNotCompiled();
         try {
             String fullyQualified = this.getClass().getPackage().getName()
                     + ".modules." + moduleName;
@@ -161,6 +207,74 @@ public final class MathMLCanonicalizer {
         return this;
     }
 
+    /**
+     * Creates immutable canonicalizer with the current modules and settings.
+     *
+     * The modules are copied together with their properties, so later changes
+     * of this canonicalizer or its modules do not affect the compiled one. The
+     * compiled canonicalizer can be used by multiple threads at once; adding
+     * modules or changing its settings throws {@link IllegalStateException}.
+     * The global properties of {@link Settings} and the DTD they refer to are
+     * taken as they are now, later changes of them (e.g. by loading another
+     * configuration) do not affect the compiled canonicalizer nor its
+     * fingerprint.
+     *
+     * @return compiled canonicalizer (this instance if already compiled)
+     * @throws IllegalStateException when some module cannot be copied
+     */
+    public MathMLCanonicalizer compile() {
+        if (compiled) {
+            return this;
+        }
+        final List<StreamModule> compiledStreamModules = new ArrayList<>(streamModules.size());
+        for (StreamModule module : streamModules) {
+            compiledStreamModules.add(copyModule(module));
+        }
+        final List<DOMModule> compiledDomModules = new ArrayList<>(domModules.size());
+        for (DOMModule module : domModules) {
+            compiledDomModules.add(copyModule(module));
+        }
+        if (resolvingNamedEntities) {
+            // the entity table is loaded only once, make it use the current settings
+            NamedEntityInputStream.getEntities();
+        }
+        return new MathMLCanonicalizer(compiledStreamModules, compiledDomModules,
+                enforcingXHTMLPlusMathMLDTD, resolvingNamedEntities, fusingDOMModules, cache, pipelineListener,
+                Settings.snapshot());
+    }
+
+    /**
+     * Finds out if this canonicalizer is compiled (immutable and thread-safe)
+     *
+     * @return true if created by {@link #compile()}, false otherwise
+     */
+    public boolean isCompiled() {
+        return compiled;
+    }
+
+    /**
+     * Creates new instance of the module class with the same properties.
+     */
+    private static <T extends Module> T copyModule(T module) {
+        assert module != null;
+        try {
+            @SuppressWarnings("unchecked")
+            final T copy = (T) module.getClass().getDeclaredConstructor().newInstance();
+            for (String key : module.getPropertyNames()) {
+                copy.setProperty(key, module.getProperty(key));
+            }
+            return copy;
+        } catch (ReflectiveOperationException ex) {
+            throw new IllegalStateException("cannot copy module " + module.getClass().getName(), ex);
+        }
+    }
+
+    private void checkNotCompiled() {
+        if (compiled) {
+            throw new IllegalStateException("compiled canonicalizer cannot be modified");
+        }
+    }
+
     /**
      * Validate the configuration against XML Schema.
      *
@@ -279,7 +393,8 @@ public final class MathMLCanonicalizer {
      * @param out canonical output stream of input
      * @throws JDOMException problem with DOM
      * @throws IOException problem with streams
-     * @throws ModuleException some module cannot canonicalize the input
+     * @throws ModuleException some module cannot canonicalize the input or
+     * the input is not well-formed
      * @throws javax.xml.stream.XMLStreamException an error with XML processing
      * occurs
      */
@@ -291,25 +406,101 @@ public final class MathMLCanonicalizer {
         if (out == null) {
             throw new NullPointerException("out");
         }
+        if (domModules.isEmpty() && streamModules.isEmpty()) {
+            throw new IOException("There are no modules added.");
+        }
 
-        ByteArrayOutputStream streamModulesResult = executeStreamModules(in);
+        final PipelineListener listener = pipelineListener;
+        if (listener == null) {
+            canonicalizeDocument(in, out);
+            return;
+        }
+        listener.documentStarted();
+        final Measurement measurement = Measurement.start(listener);
+        final PipelineListener previous = ModuleCounters.bind(listener);
+        try {
+            canonicalizeDocument(in, out);
+        } catch (JDOMException | IOException | ModuleException | XMLStreamException | RuntimeException ex) {
+            listener.documentFailed(ex);
+            throw ex;
+        } finally {
+            ModuleCounters.bind(previous);
+        }
+        listener.documentFinished(measurement.nanos(), measurement.allocatedBytes());
+    }
 
+    private void canonicalizeDocument(final InputStream in, final OutputStream out)
+            throws JDOMException, IOException, ModuleException, XMLStreamException {
+        final InputStream document = StageEvents.EVENTS.beginDocument(in);
+        final Settings.Snapshot previous = settings == null ? null : Settings.bind(settings);
+        try {
+            canonicalizeCached(document, out);
+        } finally {
+            if (settings != null) {
+                Settings.bind(previous);
+            }
+            StageEvents.EVENTS.endDocument();
+        }
+    }
+
+    private void canonicalizeCached(final InputStream in, final OutputStream out)
+            throws JDOMException, IOException, ModuleException, XMLStreamException {
+        if (cache != null) {
+            if (!compiled) {
+                throw new IllegalStateException("cache can be used only by a compiled canonicalizer");
+            }
+            final byte[] input = IOUtils.toByteArray(in);
+            final String key = cacheKey(input);
+            byte[] output = cache.get(key);
+            if (output == null) {
+                final ByteArrayOutputStream result = new ByteArrayOutputStream();
+                execute(new ByteArrayInputStream(input), result);
+                output = result.toByteArray();
+                cache.put(key, output);
+            }
+            out.write(output);
+            return;
+        }
+        execute(in, out);
+    }
+
+    private void execute(final InputStream in, final OutputStream out)
+            throws JDOMException, IOException, ModuleException, XMLStreamException {
         // do not create the JDOM representation if there are no modules
         if (domModules.isEmpty()) {
-            if (streamModules.isEmpty()) {
-                throw new IOException("There are no modules added.");
+            if (isStreamFilterChain()) {
+                // no need to buffer the result of the last module
+                final Object event = StageEvents.EVENTS.begin();
+                final Measurement measurement = Measurement.start(pipelineListener);
+                final List<MeasuredStreamReader> readers = measurement == null ? null : new ArrayList<MeasuredStreamReader>();
+                try {
+                    XMLStreamCopier.copy(executeStreamFilters(in, readers), out);
+                } catch (XMLStreamException ex) {
+                    throw new ModuleException("Error while parsing the input file", ex);
+                }
+                StageEvents.EVENTS.commit(event, StageEvents.PARSE);
+                if (measurement != null) {
+                    reportStreamFilters(measurement, readers);
+                }
+                return;
             }
+            ByteArrayOutputStream streamModulesResult = executeStreamModules(in);
             assert streamModulesResult != null; // nonempty streamModules + nothing thrown in for
             streamModulesResult.writeTo(out);
             return;
         }
-        final InputStream input = streamModulesResult == null ? in : new ByteArrayInputStream(streamModulesResult.toByteArray());
 
-        final Document document = executeDomModules(input);
+        final Document document = executeDomModules(in);
 
         // convertong the JDOM representation back to stream
+        final Object event = StageEvents.EVENTS.begin();
+        final Measurement measurement = Measurement.start(pipelineListener);
         final XMLOutputter serializer = new XMLOutputter();
         serializer.output(document, out);
+        StageEvents.EVENTS.commit(event, StageEvents.SERIALIZE);
+        if (measurement != null) {
+            pipelineListener.serialized(measurement.nanos(), measurement.allocatedBytes());
+        }
     }
 
     /**
@@ -323,24 +514,235 @@ public final class MathMLCanonicalizer {
             throw new NullPointerException("Input stream is null");
         }
 
-        ByteArrayOutputStream streamModulesResult = executeStreamModules(in);
-        final InputStream input = streamModulesResult == null ? in : new ByteArrayInputStream(streamModulesResult.toByteArray());
+        final PipelineListener listener = pipelineListener;
+        if (listener == null) {
+            return canonicalizeToDocument(in);
+        }
+        listener.documentStarted();
+        final Measurement measurement = Measurement.start(listener);
+        final PipelineListener previous = ModuleCounters.bind(listener);
+        final Document document;
+        try {
+            document = canonicalizeToDocument(in);
+        } catch (JDOMException | IOException | ModuleException | XMLStreamException | RuntimeException ex) {
+            listener.documentFailed(ex);
+            throw ex;
+        } finally {
+            ModuleCounters.bind(previous);
+        }
+        listener.documentFinished(measurement.nanos(), measurement.allocatedBytes());
+        return document;
+    }
+
+    private Document canonicalizeToDocument(final InputStream in)
+            throws JDOMException, IOException, ModuleException, XMLStreamException {
+        final InputStream document = StageEvents.EVENTS.beginDocument(in);
+        final Settings.Snapshot previous = settings == null ? null : Settings.bind(settings);
+        try {
+            return executeDomModules(document);
+        } finally {
+            if (settings != null) {
+                Settings.bind(previous);
+            }
+            StageEvents.EVENTS.endDocument();
+        }
+    }
+
+    /**
+     * Computes the cache key of the input for this configuration.
+     */
+    private String cacheKey(final byte[] input) {
+        final MessageDigest digest = sha256();
+        digest.update(getFingerprint().getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(input);
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Gets fingerprint identifying the canonicalization performed by this
+     * canonicalizer.
+     *
+     * The fingerprint is SHA-256 in hexadecimal computed from the ordered
+     * modules, the properties of each module, the DTD and entity modes and the
+     * global {@link Settings} properties (as they were when compiled for a
+     * compiled canonicalizer). Properties are taken in order of
+     * their names, so the fingerprint does not depend on the order in which
+     * they were declared or set. Canonicalizers with the same fingerprint
+     * produce the same output for the same input. The fingerprint of a
+     * compiled canonicalizer is computed only once.
+     *
+     * @return hexadecimal SHA-256 of the configuration
+     */
+    public String getFingerprint() {
+        if (!compiled) {
+            return computeFingerprint();
+        }
+        String fingerprint = compiledFingerprint;
+        if (fingerprint == null) {
+            fingerprint = computeFingerprint();
+            compiledFingerprint = fingerprint;
+        }
+        return fingerprint;
+    }
+
+    private String computeFingerprint() {
+        final MessageDigest digest = sha256();
+        // the version changes with the output of the same configuration
+        update(digest, "MathMLCanonicalizer 2");
+        // stream modules are always executed first
+        final List<Module> modules = new ArrayList<Module>(streamModules);
+        modules.addAll(domModules);
+        digest.update(toBytes(modules.size()));
+        for (Module module : modules) {
+            update(digest, module.getClass().getName());
+            final List<String> keys = new ArrayList<>();
+            for (String key : new TreeSet<>(module.getPropertyNames())) {
+                if (module.isProperty(key)) {
+                    keys.add(key);
+                }
+            }
+            digest.update(toBytes(keys.size()));
+            for (String key : keys) {
+                update(digest, key);
+                update(digest, module.getProperty(key));
+            }
+        }
+        digest.update((byte) (enforcingXHTMLPlusMathMLDTD ? 1 : 0));
+        digest.update((byte) (resolvingNamedEntities ? 1 : 0));
+        final TreeSet<String> keys = new TreeSet<>(
+                settings == null ? Settings.getPropertyNames() : settings.getPropertyNames());
+        digest.update(toBytes(keys.size()));
+        for (String key : keys) {
+            update(digest, key);
+            update(digest, settings == null ? Settings.getProperty(key) : settings.getProperty(key));
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Updates the digest by the length prefixed string, so that the
+     * concatenation of strings is unambiguous.
+     */
+    private static void update(final MessageDigest digest, final String string) {
+        final byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        digest.update(toBytes(bytes.length));
+        digest.update(bytes);
+    }
 
-        return executeDomModules(input);
+    private static byte[] toBytes(final int value) {
+        return new byte[]{(byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value};
     }
 
-    private Document executeDomModules(final InputStream input) throws JDOMException, IOException, ModuleException {
-        // creating the JDOM representation from the stream
-        final SAXBuilder builder = Settings.setupSAXBuilder();
-        final Document document = builder.build(input);
+    static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new ConfigError("SHA-256 not supported", ex);
+        }
+    }
+
+    static String toHex(final byte[] bytes) {
+        final StringBuilder hex = new StringBuilder(2 * bytes.length);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    private Document executeDomModules(final InputStream in)
+            throws JDOMException, IOException, ModuleException, XMLStreamException {
+        final Document document;
+        if (!streamModules.isEmpty() && isStreamFilterChain()) {
+            // creating the JDOM representation directly from the filtered events
+            final Object event = StageEvents.EVENTS.begin();
+            final Measurement measurement = Measurement.start(pipelineListener);
+            final List<MeasuredStreamReader> readers = measurement == null ? null : new ArrayList<MeasuredStreamReader>();
+            try {
+                document = new StAXStreamBuilder().build(executeStreamFilters(in, readers));
+            } catch (JDOMException ex) {
+                throw new ModuleException("Error while parsing the input file", ex);
+            }
+            StageEvents.EVENTS.commit(event, StageEvents.PARSE);
+            if (measurement != null) {
+                reportStreamFilters(measurement, readers);
+            }
+        } else {
+            ByteArrayOutputStream streamModulesResult = executeStreamModules(in);
+            final InputStream input = streamModulesResult == null
+                    ? resolveEntitiesIfNecessary(in)
+                    : new ByteArrayInputStream(streamModulesResult.toByteArray());
+
+            // creating the JDOM representation from the stream
+            final Object event = StageEvents.EVENTS.begin();
+            final Measurement measurement = Measurement.start(pipelineListener);
+            final SAXBuilder builder = Settings.setupSAXBuilder();
+            try {
+                document = builder.build(input);
+            } catch (JDOMException ex) {
+                // the same as when parsed by the stream modules
+                throw new ModuleException("Error while parsing the input file", ex);
+            }
+            StageEvents.EVENTS.commit(event, StageEvents.PARSE);
+            if (measurement != null) {
+                pipelineListener.parsed(measurement.nanos(), measurement.allocatedBytes());
+            }
+        }
 
         // calling JDOM modules
-        for (DOMModule module : domModules) {
-            module.execute(document);
+        if (fusingDOMModules) {
+            executeFusedDomModules(document);
+        } else {
+            for (DOMModule module : domModules) {
+                executeDomModule(module, document);
+            }
         }
         return document;
     }
 
+    private void executeDomModule(final DOMModule module, final Document document) throws ModuleException {
+        final Object event = StageEvents.EVENTS.begin();
+        final Measurement measurement = Measurement.start(pipelineListener);
+        module.execute(document);
+        StageEvents.EVENTS.commit(event, module);
+        if (measurement != null) {
+            pipelineListener.moduleExecuted(module, measurement.nanos(), measurement.allocatedBytes());
+        }
+    }
+
+    /**
+     * Executes DOM modules with consecutive element visitors fused into a
+     * single walk of the document.
+     */
+    private void executeFusedDomModules(final Document document) throws ModuleException {
+        final List<ElementVisitorModule> visitors = new ArrayList<>();
+        for (DOMModule module : domModules) {
+            if (module instanceof ElementVisitorModule) {
+                visitors.add((ElementVisitorModule) module);
+                continue;
+            }
+            executeFusedVisitors(document, visitors);
+            visitors.clear();
+            executeDomModule(module, document);
+        }
+        executeFusedVisitors(document, visitors);
+    }
+
+    private void executeFusedVisitors(final Document document, final List<ElementVisitorModule> visitors)
+            throws ModuleException {
+        if (visitors.isEmpty()) {
+            return;
+        }
+        final Object event = StageEvents.EVENTS.begin();
+        final Measurement measurement = Measurement.start(pipelineListener);
+        FusedTraversal.execute(document, visitors);
+        StageEvents.EVENTS.commit(event, visitors);
+        if (measurement != null) {
+            pipelineListener.modulesExecuted(Collections.unmodifiableList(new ArrayList<>(visitors)),
+                    measurement.nanos(), measurement.allocatedBytes());
+        }
+    }
+
     /**
      * Returns result of stream modules execution or null if stream modules are
      * not defined.
@@ -360,7 +762,13 @@ public final class MathMLCanonicalizer {
                     ? injectDtdsIfNecessary(in)
                     : new ByteArrayInputStream(outputStream.toByteArray());
 
+            final Object event = StageEvents.EVENTS.begin();
+            final Measurement measurement = Measurement.start(pipelineListener);
             outputStream = module.execute(inputStream);
+            StageEvents.EVENTS.commit(event, module);
+            if (measurement != null) {
+                pipelineListener.moduleExecuted(module, measurement.nanos(), measurement.allocatedBytes());
+            }
             if (outputStream == null) {
                 throw new IOException("Module " + module + " returned null");
             }
@@ -369,12 +777,86 @@ public final class MathMLCanonicalizer {
         return removeDtdsIfNecessary(outputStream);
     }
 
+    /**
+     * Whether all the stream modules can be chained as filters over a single
+     * parse of the input.
+     */
+    private boolean isStreamFilterChain() {
+        for (StreamModule module : streamModules) {
+            if (!(module instanceof StreamFilterModule)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns reader of the input filtered by all the stream modules.
+     *
+     * @param readers list to which the parser and each filter are added
+     * wrapped in a measuring reader, null not to measure them
+     */
+    private XMLStreamReader executeStreamFilters(final InputStream in, final List<MeasuredStreamReader> readers)
+            throws ModuleException, XMLStreamException {
+        assert isStreamFilterChain();
+
+        XMLStreamReader reader = Settings.setupXMLInputFactory().createXMLStreamReader(injectDtdsIfNecessary(in));
+        if (readers != null) {
+            reader = new MeasuredStreamReader(reader);
+            readers.add((MeasuredStreamReader) reader);
+        }
+        for (StreamModule module : streamModules) {
+            reader = ((StreamFilterModule) module).filter(reader);
+            if (reader == null) {
+                throw new ModuleException("Module " + module + " returned null");
+            }
+            if (readers != null) {
+                reader = new MeasuredStreamReader(reader);
+                readers.add((MeasuredStreamReader) reader);
+            }
+        }
+        if (enforcingXHTMLPlusMathMLDTD) {
+            reader = DTDManipulator.removeDTD(reader);
+        }
+        return reader;
+    }
+
+    /**
+     * Reports the stream filters as modules with the time they took while
+     * advancing their readers and the rest of the measurement as parsing.
+     */
+    private void reportStreamFilters(final Measurement measurement, final List<MeasuredStreamReader> readers) {
+        assert readers.size() == streamModules.size() + 1;
+        final int filters = streamModules.size();
+        final long[] filterNanos = new long[filters];
+        final long[] filterBytes = new long[filters];
+        long nanos = measurement.nanos();
+        long allocatedBytes = measurement.allocatedBytes();
+        // each reader includes the time of the readers it reads
+        for (int i = 0; i < filters; i++) {
+            filterNanos[i] = Math.max(0, readers.get(i + 1).nanos() - readers.get(i).nanos());
+            nanos -= filterNanos[i];
+            if (allocatedBytes < 0) {
+                filterBytes[i] = -1;
+            } else {
+                filterBytes[i] = Math.max(0, readers.get(i + 1).allocatedBytes() - readers.get(i).allocatedBytes());
+                allocatedBytes -= filterBytes[i];
+            }
+        }
+        pipelineListener.parsed(Math.max(0, nanos), allocatedBytes < 0 ? -1 : Math.max(0, allocatedBytes));
+        for (int i = 0; i < filters; i++) {
+            pipelineListener.moduleExecuted(streamModules.get(i), filterNanos[i], filterBytes[i]);
+        }
+    }
+
     private ByteArrayOutputStream removeDtdsIfNecessary(final ByteArrayOutputStream outputStream) throws XMLStreamException {
         ByteArrayOutputStream result;
 
         if (enforcingXHTMLPlusMathMLDTD) {
+            final Object event = StageEvents.EVENTS.begin();
             InputStream inputStream = new ByteArrayInputStream(outputStream.toByteArray());
             result = DTDManipulator.removeDTDAndReturnOutputStream(inputStream);
+            StageEvents.EVENTS.commit(event, StageEvents.REMOVE_DTD);
         } else {
             result = outputStream;
         }
@@ -383,9 +865,17 @@ public final class MathMLCanonicalizer {
     }
 
     private InputStream injectDtdsIfNecessary(final InputStream in) {
-        InputStream inputStream;
+        InputStream inputStream = resolveEntitiesIfNecessary(in);
         if (enforcingXHTMLPlusMathMLDTD) {
-            inputStream = DTDManipulator.injectXHTML11PlusMathML20PlusSVG11DTD(in);
+            inputStream = DTDManipulator.injectXHTML11PlusMathML20PlusSVG11DTD(inputStream);
+        }
+        return inputStream;
+    }
+
+    private InputStream resolveEntitiesIfNecessary(final InputStream in) {
+        InputStream inputStream;
+        if (resolvingNamedEntities) {
+            inputStream = new NamedEntityInputStream(in);
         } else {
             inputStream = in;
         }
@@ -410,12 +900,145 @@ public final class MathMLCanonicalizer {
      * Enable/disable force injecting of XHTML 1.1 plus MathML 2.0 plus SVG 1.1
      * DTD reference into any input document.
      *
+     * The DTD is parsed for every document, since its declarations affect the
+     * parsed document. Use {@link #setResolvingNamedEntities(boolean)} when
+     * only the named entities are needed.
+     *
      * @param mode XHTML 1.1 plus MathML 2.0 plus SVG 1.1 DTD enforcement mode
+     * @throws IllegalStateException when the canonicalizer is compiled
      */
     public void setEnforcingXHTMLPlusMathMLDTD(boolean mode) {
 
+        checkNotCompiled();
         enforcingXHTMLPlusMathMLDTD = mode;
 
     }
 
+    /**
+     * Test whether this instance of {@link MathMLCanonicalizer} is replacing
+     * named entities of XHTML 1.1 plus MathML 2.0 plus SVG 1.1 DTD in input
+     * documents without reading the DTD.
+     *
+     * @return named entity resolution setting
+     */
+    public boolean isResolvingNamedEntities() {
+
+        return resolvingNamedEntities;
+
+    }
+
+    /**
+     * Enable/disable replacing of named entities of XHTML 1.1 plus MathML 2.0
+     * plus SVG 1.1 DTD ({@code &alpha;} ...) by the characters they stand for.
+     *
+     * Unlike the DTD enforcement, the entities are resolved from a precompiled
+     * table while the input is read, so neither the DTD injection nor its
+     * parsing and removal is needed. Input documents have to be in UTF-8 or
+     * other ASCII compatible encoding.
+     *
+     * @param mode named entity resolution mode
+     * @throws IllegalStateException when the canonicalizer is compiled
+     */
+    public void setResolvingNamedEntities(boolean mode) {
+
+        checkNotCompiled();
+        resolvingNamedEntities = mode;
+
+    }
+
+    /**
+     * Test whether this instance of {@link MathMLCanonicalizer} is fusing
+     * consecutive DOM modules into a single walk of the document.
+     *
+     * @return DOM module fusion setting
+     */
+    public boolean isFusingDOMModules() {
+
+        return fusingDOMModules;
+
+    }
+
+    /**
+     * Enable/disable fusing of consecutive DOM modules processing the document
+     * element by element ({@link ElementVisitorModule}).
+     *
+     * Fused modules visit each element in turn during a single walk of the
+     * document instead of walking the document one after another. The result
+     * is the same, other DOM modules are executed on their own in between. In
+     * the default configuration {@code UnaryOperatorRemover} and
+     * {@code SingleTopElementOutputter} share a single walk.
+     *
+     * @param mode DOM module fusion mode
+     * @throws IllegalStateException when the canonicalizer is compiled
+     */
+    public void setFusingDOMModules(boolean mode) {
+
+        checkNotCompiled();
+        fusingDOMModules = mode;
+
+    }
+
+    /**
+     * Gets the cache of canonical outputs used by this canonicalizer
+     *
+     * @return the cache or null if not caching
+     */
+    public CanonicalizationCache getCache() {
+
+        return cache;
+
+    }
+
+    /**
+     * Sets the cache of canonical outputs.
+     *
+     * {@link #canonicalize(InputStream, OutputStream)} of the compiled
+     * canonicalizer ({@link #compile()}) reads the whole input, computes
+     * SHA-256 of the input bytes together with the configuration fingerprint
+     * ({@link #getFingerprint()}, computed only once when compiled) and
+     * writes the cached output if there is any, without running any module.
+     * Otherwise the output is stored in the cache. The cache can be shared by
+     * multiple canonicalizers. The canonicalizer has to be compiled to use
+     * the cache, since the modules can be changed without its knowledge
+     * before that.
+     *
+     * @param cache the cache or null to disable caching
+     * @throws IllegalStateException when the canonicalizer is compiled
+     */
+    public void setCache(CanonicalizationCache cache) {
+
+        checkNotCompiled();
+        this.cache = cache;
+
+    }
+
+    /**
+     * Gets the listener of the canonicalization steps
+     *
+     * @return the listener or null if not listening
+     */
+    public PipelineListener getPipelineListener() {
+
+        return pipelineListener;
+
+    }
+
+    /**
+     * Sets the listener of the canonicalization steps.
+     *
+     * The listener is notified of the time and allocated bytes of parsing,
+     * each module and serialization and of counters of changes made by the
+     * modules, see {@link PipelineStatistics}. Without a listener the steps
+     * are not measured at all.
+     *
+     * @param listener the listener or null to stop listening
+     * @throws IllegalStateException when the canonicalizer is compiled
+     */
+    public void setPipelineListener(PipelineListener listener) {
+
+        checkNotCompiled();
+        this.pipelineListener = listener;
+
+    }
+
 }
@@ -16,12 +16,21 @@
 package cz.muni.fi.mir.mathmlcanonicalization;
 
 import cz.muni.fi.mir.mathmlcanonicalization.modules.ModuleException;
+import cz.muni.fi.mir.mathmlcanonicalization.utils.NormalizationCache;
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.ArrayDeque;
 import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.xml.parsers.ParserConfigurationException;
@@ -30,7 +39,6 @@ import javax.xml.transform.TransformerConfigurationException;
 
 import org.apache.commons.cli.*;
 import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.IOUtils;
 import org.jdom2.JDOMException;
 import org.w3c.dom.Document;
 import org.w3c.dom.bootstrap.DOMImplementationRegistry;
@@ -49,11 +57,25 @@ public final class MathMLCanonicalizerCommandLineTool {
 
     private static final String JARFILE = "mathml-canonicalizer.jar";
     private static final Logger LOGGER = Logger.getLogger(MathMLCanonicalizerCommandLineTool.class.getName());
+    // files being canonicalized or waiting to be written per thread
+    private static final int WINDOW_PER_THREAD = 4;
 
     private static final String OPTION_CONFIG = "c";
     private static final String OPTION_CONFIG_LONG = "config-file";
     private static final String OPTION_INJECTION = "d";
     private static final String OPTION_INJECTION_LONG = "inject-xhtml-mathml-svg-dtd";
+    private static final String OPTION_ENTITIES = "e";
+    private static final String OPTION_ENTITIES_LONG = "resolve-named-entities";
+    private static final String OPTION_CACHE_LONG = "cache-dir";
+    private static final String OPTION_THREADS = "t";
+    private static final String OPTION_THREADS_LONG = "threads";
+    private static final String OPTION_BATCH = "b";
+    private static final String OPTION_BATCH_LONG = "batch";
+    private static final String BATCH_LINES = "lines";
+    private static final String BATCH_LENGTH = "length";
+    private static final String OPTION_SERVER_LONG = "server";
+    private static final String OPTION_MANIFEST_LONG = "manifest";
+    private static final String OPTION_STATISTICS_LONG = "statistics";
     private static final String OPTION_OVERWRITE = "w";
     private static final String OPTION_OVERWRITE_LONG = "overwrite-inputs";
     private static final String OPTION_PRINT_DEFAULT_CONFIG = "p";
@@ -81,6 +103,13 @@ public final class MathMLCanonicalizerCommandLineTool {
         InputStream config = null;
         boolean overwrite = false;
         boolean dtdInjectionMode = false;
+        boolean entityResolutionMode = false;
+        File cacheDirectory = null;
+        int threads = 1;
+        String batchFormat = null;
+        int serverPort = -1;
+        File manifestFile = null;
+        boolean statistics = false;
         if (line != null) {
             if (line.hasOption(OPTION_CONFIG)) {
                 try {
@@ -97,10 +126,62 @@ public final class MathMLCanonicalizerCommandLineTool {
                 dtdInjectionMode = true;
             }
 
+            if (line.hasOption(OPTION_ENTITIES)) {
+                entityResolutionMode = true;
+            }
+
+            if (line.hasOption(OPTION_CACHE_LONG)) {
+                cacheDirectory = new File(line.getOptionValue(OPTION_CACHE_LONG));
+            }
+
+            if (line.hasOption(OPTION_THREADS)) {
+                try {
+                    threads = Integer.parseInt(line.getOptionValue(OPTION_THREADS));
+                } catch (NumberFormatException ex) {
+                    threads = 0;
+                }
+                if (threads < 1) {
+                    printHelp(options);
+                    System.exit(1);
+                }
+            }
+
+            if (line.hasOption(OPTION_BATCH)) {
+                batchFormat = line.getOptionValue(OPTION_BATCH);
+                if (!batchFormat.equals(BATCH_LINES) && !batchFormat.equals(BATCH_LENGTH)) {
+                    printHelp(options);
+                    System.exit(1);
+                }
+            }
+
+            if (line.hasOption(OPTION_SERVER_LONG)) {
+                try {
+                    serverPort = Integer.parseInt(line.getOptionValue(OPTION_SERVER_LONG));
+                } catch (NumberFormatException ex) {
+                    serverPort = -1;
+                }
+                if (serverPort < 0 || serverPort > 65535) {
+                    printHelp(options);
+                    System.exit(1);
+                }
+            }
+
             if (line.hasOption(OPTION_OVERWRITE)) {
                 overwrite = true;
             }
 
+            if (line.hasOption(OPTION_MANIFEST_LONG)) {
+                if (!overwrite) {
+                    printHelp(options);
+                    System.exit(1);
+                }
+                manifestFile = new File(line.getOptionValue(OPTION_MANIFEST_LONG));
+            }
+
+            if (line.hasOption(OPTION_STATISTICS_LONG)) {
+                statistics = true;
+            }
+
             if (line.hasOption(OPTION_PRINT_DEFAULT_CONFIG)) {
                 printDefaultConfig();
                 System.exit(0);
@@ -112,19 +193,59 @@ public final class MathMLCanonicalizerCommandLineTool {
             }
 
             final List<String> arguments = Arrays.asList(line.getArgs());
-            if (arguments.size() > 0) {
+            if (arguments.size() > 0 || batchFormat != null || serverPort >= 0) {
 
-                byte[] configContent = IOUtils.toByteArray(config);
-
-                for (String arg : arguments) {
+                DiskCanonicalizationCache cache = null;
+                if (cacheDirectory != null) {
                     try {
-                        List<File> files = getFiles(new File(arg));
-                        for (File file : files) {
-                            ByteArrayInputStream byteArrayInputStream = new ByteArrayInputStream(configContent);
-                            canonicalize(file, byteArrayInputStream, dtdInjectionMode, overwrite);
-                        }
+                        cache = new DiskCanonicalizationCache(cacheDirectory);
                     } catch (IOException ex) {
                         LOGGER.log(Level.SEVERE, ex.getMessage(), ex);
+                        System.exit(2);
+                    }
+                }
+
+                final PipelineStatistics pipelineStatistics = statistics ? new PipelineStatistics() : null;
+                try {
+                    // the configuration is loaded and validated only once
+                    final MathMLCanonicalizer canonicalizer = new MathMLCanonicalizer(config);
+                    canonicalizer.setEnforcingXHTMLPlusMathMLDTD(dtdInjectionMode);
+                    canonicalizer.setResolvingNamedEntities(entityResolutionMode);
+                    canonicalizer.setCache(cache);
+                    canonicalizer.setPipelineListener(pipelineStatistics);
+
+                    if (serverPort >= 0) {
+                        serve(canonicalizer.compile(), serverPort);
+                    } else if (batchFormat != null) {
+                        canonicalizeRecords(canonicalizer.compile(), new BufferedInputStream(System.in),
+                                new BufferedOutputStream(System.out), batchFormat.equals(BATCH_LENGTH), threads);
+                    } else {
+                        final List<File> files = new ArrayList<>();
+                        for (String arg : arguments) {
+                            try {
+                                files.addAll(getFiles(new File(arg)));
+                            } catch (IOException ex) {
+                                LOGGER.log(Level.SEVERE, ex.getMessage(), ex);
+                            }
+                        }
+                        final CanonicalizationManifest manifest = manifestFile == null
+                                ? null : new CanonicalizationManifest(manifestFile);
+                        try {
+                            canonicalize(canonicalizer.compile(), files, threads, overwrite, manifest);
+                        } finally {
+                            if (manifest != null) {
+                                manifest.save();
+                            }
+                        }
+                    }
+                } finally {
+                    if (pipelineStatistics != null) {
+                        LOGGER.log(Level.INFO, "{0}", pipelineStatistics);
+                        LOGGER.log(Level.INFO, "{0}", NormalizationCache.getShared());
+                    }
+                    if (cache != null) {
+                        LOGGER.log(Level.INFO, "{0}", cache);
+                        cache.close();
                     }
                 }
             } else {
@@ -158,6 +279,74 @@ public final class MathMLCanonicalizerCommandLineTool {
                 .build()
         );
 
+        options.addOption(Option
+                .builder(OPTION_ENTITIES)
+                .longOpt(OPTION_ENTITIES_LONG)
+                .desc("Replace named entities of XHTML 1.1 plus MathML 2.0 plus SVG 1.1 DTD in input documents without reading the DTD.")
+                .hasArg(false)
+                .build()
+        );
+
+        options.addOption(Option
+                .builder()
+                .longOpt(OPTION_CACHE_LONG)
+                .desc("Reuse canonical outputs of the same inputs and configuration cached in the directory by previous runs.")
+                .argName("dir")
+                .hasArg()
+                .build()
+        );
+
+        options.addOption(Option
+                .builder(OPTION_THREADS)
+                .longOpt(OPTION_THREADS_LONG)
+                .desc("Canonicalize files by the given number of threads (1 by default). Outputs are written in the same order as by a single thread.")
+                .argName("n")
+                .hasArg()
+                .build()
+        );
+
+        options.addOption(Option
+                .builder(OPTION_BATCH)
+                .longOpt(OPTION_BATCH_LONG)
+                .desc("Canonicalize records read from the standard input instead of files and write the outputs to the standard output in the same order. "
+                        + "Records are either single lines (" + BATCH_LINES + "; line breaks of outputs are replaced by spaces) "
+                        + "or 4 byte big-endian lengths followed by the bytes (" + BATCH_LENGTH + "). "
+                        + "Empty output is written for a record which cannot be canonicalized.")
+                .argName(BATCH_LINES + "|" + BATCH_LENGTH)
+                .hasArg()
+                .build()
+        );
+
+        options.addOption(Option
+                .builder()
+                .longOpt(OPTION_SERVER_LONG)
+                .desc("Run as a server canonicalizing documents sent over TCP connections to the given local port until terminated. "
+                        + "Requests are 4 byte big-endian lengths followed by the document bytes, responses are status bytes "
+                        + "(" + CanonicalizationServer.STATUS_OK + " for success, " + CanonicalizationServer.STATUS_ERROR
+                        + " for failure), 4 byte big-endian lengths and the canonical documents or error messages.")
+                .argName("port")
+                .hasArg()
+                .build()
+        );
+
+        options.addOption(Option
+                .builder()
+                .longOpt(OPTION_MANIFEST_LONG)
+                .desc("Keep a manifest of overwritten files in the given file and skip files not changed since they were overwritten "
+                        + "with the same configuration. Requires -" + OPTION_OVERWRITE + ".")
+                .argName("file")
+                .hasArg()
+                .build()
+        );
+
+        options.addOption(Option
+                .builder()
+                .longOpt(OPTION_STATISTICS_LONG)
+                .desc("Log time and allocated bytes of parsing, each module and serialization, the counts of changes made by the modules and the hit rate of the Unicode normalization cache at the end.")
+                .hasArg(false)
+                .build()
+        );
+
         options.addOption(Option
                 .builder(OPTION_OVERWRITE)
                 .longOpt(OPTION_OVERWRITE_LONG)
@@ -185,24 +374,239 @@ public final class MathMLCanonicalizerCommandLineTool {
         return options;
     }
 
-    private static void canonicalize(File file, InputStream config, boolean dtdInjectionMode, boolean overwrite) throws
-            ConfigException, FileNotFoundException, JDOMException, IOException, ModuleException, XMLStreamException {
-        assert file != null; // but config can be null
-        MathMLCanonicalizer mlcan;
-        if (config != null) {
-            mlcan = new MathMLCanonicalizer(config);
-        } else {
-            mlcan = MathMLCanonicalizer.getDefaultCanonicalizer();
+    /**
+     * Canonicalizes the files on a pool of threads. Outputs are written and
+     * errors reported by the calling thread in order of the files, at most
+     * a few files per thread are kept in memory.
+     */
+    private static void canonicalize(final MathMLCanonicalizer canonicalizer, final List<File> files,
+            int threads, final boolean overwrite, final CanonicalizationManifest manifest) throws
+            JDOMException, IOException, ModuleException, XMLStreamException {
+        assert canonicalizer != null && canonicalizer.isCompiled() && files != null && threads > 0;
+        assert manifest == null || overwrite;
+        final String fingerprint = manifest == null ? null : canonicalizer.getFingerprint();
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final Deque<File> pendingFiles = new ArrayDeque<>();
+            final Deque<Future<byte[]>> pendingOutputs = new ArrayDeque<>();
+            final Iterator<File> remaining = files.iterator();
+            while (remaining.hasNext() || !pendingFiles.isEmpty()) {
+                while (remaining.hasNext() && pendingFiles.size() < WINDOW_PER_THREAD * threads) {
+                    final File file = remaining.next();
+                    pendingFiles.add(file);
+                    pendingOutputs.add(executor.submit(new Callable<byte[]>() {
+                        @Override
+                        public byte[] call() throws Exception {
+                            if (manifest != null && manifest.isUnchanged(file, fingerprint)) {
+                                return null;
+                            }
+                            return canonicalize(canonicalizer, file);
+                        }
+                    }));
+                }
+                final File file = pendingFiles.remove();
+                try {
+                    final byte[] output = getOutput(pendingOutputs.remove());
+                    if (output == null) {
+                        LOGGER.log(Level.FINE, "skipping unchanged file {0}", file.getAbsolutePath());
+                    } else if (overwrite) {
+                        LOGGER.log(Level.INFO, "overwriting the file {0}", file.getAbsolutePath());
+                        FileUtils.writeByteArrayToFile(file, output);
+                        if (manifest != null) {
+                            manifest.update(file, output, fingerprint);
+                        }
+                    } else {
+                        System.out.write(output);
+                    }
+                } catch (IOException ex) {
+                    LOGGER.log(Level.SEVERE, ex.getMessage(), ex);
+                }
+            }
+            System.out.flush();
+        } finally {
+            executor.shutdownNow();
         }
-        mlcan.setEnforcingXHTMLPlusMathMLDTD(dtdInjectionMode);
+    }
+
+    /**
+     * Serves canonicalization requests until the process is terminated.
+     */
+    private static void serve(final MathMLCanonicalizer canonicalizer, final int port) throws IOException {
+        assert canonicalizer != null && canonicalizer.isCompiled();
+        final CanonicalizationServer server = new CanonicalizationServer(canonicalizer, port);
+        final Thread serving = Thread.currentThread();
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                try {
+                    server.close();
+                    // let the pending requests be answered
+                    serving.join();
+                } catch (IOException ex) {
+                    LOGGER.log(Level.SEVERE, ex.getMessage(), ex);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        server.serve();
+    }
 
-        if (overwrite) {
-            LOGGER.log(Level.INFO, "overwriting the file {0}", file.getAbsolutePath());
-            ByteArrayInputStream source = new ByteArrayInputStream(FileUtils.readFileToByteArray(file));
+    /**
+     * Canonicalizes records of the input on a pool of threads and writes them
+     * to the output in the same order. At most a few records per thread are
+     * kept in memory.
+     *
+     * The input is waited for only when all the outputs were written, so a
+     * producer may wait for the output of each record before sending the next.
+     */
+    static void canonicalizeRecords(final MathMLCanonicalizer canonicalizer, final InputStream in,
+            final OutputStream out, final boolean lengthPrefixed, int threads) throws IOException {
+        assert canonicalizer != null && canonicalizer.isCompiled() && in != null && out != null && threads > 0;
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final DataInputStream input = new DataInputStream(in);
+            final DataOutputStream output = new DataOutputStream(out);
+            final Deque<Future<byte[]>> pendingOutputs = new ArrayDeque<>();
+            long recordNumber = 0;
+            boolean end = false;
+            while (!end || !pendingOutputs.isEmpty()) {
+                // read only the records which came when there are outputs to write
+                while (!end && pendingOutputs.size() < WINDOW_PER_THREAD * threads
+                        && (pendingOutputs.isEmpty() || input.available() > 0)) {
+                    final byte[] record = lengthPrefixed ? readLengthPrefixedRecord(input) : readLine(input);
+                    if (record == null) {
+                        end = true;
+                        break;
+                    }
+                    pendingOutputs.add(executor.submit(new Callable<byte[]>() {
+                        @Override
+                        public byte[] call() throws Exception {
+                            final ByteArrayOutputStream result = new ByteArrayOutputStream();
+                            canonicalizer.canonicalize(new ByteArrayInputStream(record), result);
+                            return result.toByteArray();
+                        }
+                    }));
+                }
+                if (pendingOutputs.isEmpty()) {
+                    break;
+                }
+                recordNumber++;
+                byte[] result;
+                try {
+                    result = getOutput(pendingOutputs.remove());
+                } catch (JDOMException | IOException | ModuleException | XMLStreamException ex) {
+                    LOGGER.log(Level.SEVERE, "record " + recordNumber + ": " + ex.getMessage(), ex);
+                    result = new byte[0];
+                }
+                if (lengthPrefixed) {
+                    output.writeInt(result.length);
+                    output.write(result);
+                } else {
+                    writeLine(output, result);
+                }
+                if (pendingOutputs.isEmpty() || !pendingOutputs.peek().isDone()) {
+                    // do not keep outputs while waiting for the input or the next output
+                    output.flush();
+                }
+            }
+            output.flush();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
 
-            mlcan.canonicalize(source, new FileOutputStream(file));
-        } else {
-            mlcan.canonicalize(new FileInputStream(file), System.out);
+    /**
+     * Reads the next line without the line break or null at the end.
+     */
+    private static byte[] readLine(final InputStream in) throws IOException {
+        final ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b = in.read();
+        if (b == -1) {
+            return null;
+        }
+        while (b != -1 && b != '\n') {
+            line.write(b);
+            b = in.read();
+        }
+        final byte[] result = line.toByteArray();
+        if (result.length > 0 && result[result.length - 1] == '\r') {
+            return Arrays.copyOf(result, result.length - 1);
+        }
+        return result;
+    }
+
+    /**
+     * Writes the output as a single line, replacing its line breaks by spaces.
+     */
+    private static void writeLine(final OutputStream out, final byte[] output) throws IOException {
+        int length = output.length;
+        while (length > 0 && (output[length - 1] == '\n' || output[length - 1] == '\r')) {
+            length--;
+        }
+        for (int i = 0; i < length; i++) {
+            if (output[i] == '\r' && i + 1 < length && output[i + 1] == '\n') {
+                continue;
+            }
+            out.write(output[i] == '\n' || output[i] == '\r' ? ' ' : output[i]);
+        }
+        out.write('\n');
+    }
+
+    /**
+     * Reads the next record prefixed by its length or null at the end.
+     */
+    private static byte[] readLengthPrefixedRecord(final DataInputStream in) throws IOException {
+        final int first = in.read();
+        if (first == -1) {
+            return null;
+        }
+        final int length = (first << 24) | (in.readUnsignedByte() << 16)
+                | (in.readUnsignedByte() << 8) | in.readUnsignedByte();
+        if (length < 0) {
+            throw new IOException("negative record length " + length);
+        }
+        final byte[] record = new byte[length];
+        in.readFully(record);
+        return record;
+    }
+
+    private static byte[] canonicalize(MathMLCanonicalizer canonicalizer, File file) throws
+            JDOMException, IOException, ModuleException, XMLStreamException {
+        assert canonicalizer != null && file != null;
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (InputStream input = new FileInputStream(file)) {
+            canonicalizer.canonicalize(input, output);
+        }
+        return output.toByteArray();
+    }
+
+    /**
+     * Waits for the output and rethrows exceptions of its computation.
+     */
+    private static byte[] getOutput(Future<byte[]> output) throws
+            JDOMException, IOException, ModuleException, XMLStreamException {
+        try {
+            return output.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("canonicalization interrupted");
+        } catch (ExecutionException ex) {
+            final Throwable cause = ex.getCause();
+            if (cause instanceof JDOMException) {
+                throw (JDOMException) cause;
+            } else if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof ModuleException) {
+                throw (ModuleException) cause;
+            } else if (cause instanceof XMLStreamException) {
+                throw (XMLStreamException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
         }
     }
 
@@ -231,17 +635,35 @@ public final class MathMLCanonicalizerCommandLineTool {
         final String PATH_TO_CONFIG = "/path/to/config.xml";
         final String PATH_TO_FILE = "/path/to/file.xhtml";
         final String PATH_TO_DIR = "/path/to/directory";
+        final String PATH_TO_CACHE = "/path/to/cache";
+        final String PATH_TO_MANIFEST = "/path/to/manifest.tsv";
         final String PATH = "/path/to/input";
 
         PrintWriter output = new PrintWriter(System.out, true);
 
         output.println("Usage:");
-        output.printf("\t%s %s [ -%s <%s> ] [ -%s ] [ -%s ] <%s>...\n",
+        output.printf("\t%s %s [ -%s <%s> ] [ -%s <%s> ] [ -%s [ --%s <%s> ] ] [ -%s ] [ -%s ] [ --%s <%s> ] <%s>...\n",
                 RUN_JAR, JARFILE,
                 OPTION_CONFIG, PATH_TO_CONFIG,
-                OPTION_OVERWRITE,
+                OPTION_THREADS, "n",
+                OPTION_OVERWRITE, OPTION_MANIFEST_LONG, PATH_TO_MANIFEST,
                 OPTION_INJECTION,
+                OPTION_ENTITIES,
+                OPTION_CACHE_LONG, PATH_TO_CACHE,
                 PATH);
+        output.printf("\t%s %s [ -%s <%s> ] [ -%s <%s> ] [ -%s ] [ -%s ] -%s %s|%s\n",
+                RUN_JAR, JARFILE,
+                OPTION_CONFIG, PATH_TO_CONFIG,
+                OPTION_THREADS, "n",
+                OPTION_INJECTION,
+                OPTION_ENTITIES,
+                OPTION_BATCH, BATCH_LINES, BATCH_LENGTH);
+        output.printf("\t%s %s [ -%s <%s> ] [ -%s ] [ -%s ] --%s <%s>\n",
+                RUN_JAR, JARFILE,
+                OPTION_CONFIG, PATH_TO_CONFIG,
+                OPTION_INJECTION,
+                OPTION_ENTITIES,
+                OPTION_SERVER_LONG, "port");
         output.printf("\t%s %s -%s | --%s\n",
                 RUN_JAR, JARFILE,
                 OPTION_PRINT_DEFAULT_CONFIG, OPTION_PRINT_DEFAULT_CONFIG_LONG);
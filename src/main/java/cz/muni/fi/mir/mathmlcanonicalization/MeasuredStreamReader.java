@@ -0,0 +1,106 @@
+/**
+ * Copyright 2013 MIR@MU Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cz.muni.fi.mir.mathmlcanonicalization;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.util.StreamReaderDelegate;
+
+/**
+ * Reader summing up the time and bytes allocated by the current thread while
+ * advancing the underlying reader.
+ *
+ * Stream filters do their work when they are advanced, so wrapping each
+ * reader of a filter chain tells how much of the parsing each filter took.
+ */
+final class MeasuredStreamReader extends StreamReaderDelegate {
+
+    private long nanos = 0;
+    private long allocatedBytes = 0;
+
+    MeasuredStreamReader(XMLStreamReader reader) {
+        super(reader);
+    }
+
+    @Override
+    public int next() throws XMLStreamException {
+        final long startBytes = Measurement.threadAllocatedBytes();
+        final long startNanos = System.nanoTime();
+        try {
+            return super.next();
+        } finally {
+            add(startNanos, startBytes);
+        }
+    }
+
+    @Override
+    public int nextTag() throws XMLStreamException {
+        final long startBytes = Measurement.threadAllocatedBytes();
+        final long startNanos = System.nanoTime();
+        try {
+            return super.nextTag();
+        } finally {
+            add(startNanos, startBytes);
+        }
+    }
+
+    @Override
+    public boolean hasNext() throws XMLStreamException {
+        final long startBytes = Measurement.threadAllocatedBytes();
+        final long startNanos = System.nanoTime();
+        try {
+            return super.hasNext();
+        } finally {
+            add(startNanos, startBytes);
+        }
+    }
+
+    @Override
+    public String getElementText() throws XMLStreamException {
+        final long startBytes = Measurement.threadAllocatedBytes();
+        final long startNanos = System.nanoTime();
+        try {
+            return super.getElementText();
+        } finally {
+            add(startNanos, startBytes);
+        }
+    }
+
+    /**
+     * @return time spent advancing the underlying reader
+     */
+    long nanos() {
+        return nanos;
+    }
+
+    /**
+     * @return bytes allocated while advancing the underlying reader or -1
+     * when the JVM cannot measure them
+     */
+    long allocatedBytes() {
+        return allocatedBytes;
+    }
+
+    private void add(long startNanos, long startBytes) {
+        nanos += System.nanoTime() - startNanos;
+        if (startBytes < 0) {
+            allocatedBytes = -1;
+        } else {
+            allocatedBytes += Measurement.threadAllocatedBytes() - startBytes;
+        }
+    }
+
+}
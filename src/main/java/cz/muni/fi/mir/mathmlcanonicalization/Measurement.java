@@ -0,0 +1,83 @@
+/**
+ * Copyright 2013 MIR@MU Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cz.muni.fi.mir.mathmlcanonicalization;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Time and bytes allocated by the current thread since the measurement
+ * started.
+ */
+final class Measurement {
+
+    private final long startNanos;
+    private final long startBytes;
+
+    private Measurement() {
+        startBytes = threadAllocatedBytes();
+        startNanos = System.nanoTime();
+    }
+
+    /**
+     * Starts measurement if there is a listener.
+     *
+     * @param listener listener to be notified or null
+     * @return the measurement or null if the listener is null
+     */
+    static Measurement start(PipelineListener listener) {
+        return listener == null ? null : new Measurement();
+    }
+
+    long nanos() {
+        return System.nanoTime() - startNanos;
+    }
+
+    long allocatedBytes() {
+        return startBytes < 0 ? -1 : threadAllocatedBytes() - startBytes;
+    }
+
+    /**
+     * @return bytes allocated by the current thread so far or -1 when the JVM
+     * cannot measure them
+     */
+    static long threadAllocatedBytes() {
+        if (!Threads.ALLOCATION_SUPPORTED) {
+            return -1;
+        }
+        return ((com.sun.management.ThreadMXBean) Threads.BEAN).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    // management beans loaded on first measurement
+    private static class Threads {
+
+        private static final ThreadMXBean BEAN = ManagementFactory.getThreadMXBean();
+        private static final boolean ALLOCATION_SUPPORTED = isAllocationSupported();
+
+        private static boolean isAllocationSupported() {
+            try {
+                Class.forName("com.sun.management.ThreadMXBean");
+            } catch (ClassNotFoundException | LinkageError ex) {
+                return false;
+            }
+            return BEAN instanceof com.sun.management.ThreadMXBean
+                    && ((com.sun.management.ThreadMXBean) BEAN).isThreadAllocatedMemorySupported()
+                    && ((com.sun.management.ThreadMXBean) BEAN).isThreadAllocatedMemoryEnabled();
+        }
+
+    }
+
+}
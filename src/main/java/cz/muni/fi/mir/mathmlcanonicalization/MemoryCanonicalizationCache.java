@@ -0,0 +1,152 @@
+/**
+ * Copyright 2013 MIR@MU Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cz.muni.fi.mir.mathmlcanonicalization;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Canonicalization cache in memory discarding least recently used entries.
+ *
+ * The cache is bounded by the approximate number of bytes taken by the
+ * entries, outputs larger than the whole cache are not stored at all.
+ */
+public class MemoryCanonicalizationCache implements CanonicalizationCache {
+
+    // rough memory taken by the map entry, the key object and array headers
+    private static final int ENTRY_OVERHEAD = 128;
+
+    private final long maxBytes;
+    private final LinkedHashMap<String, byte[]> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes = 0;
+    private long hitCount = 0;
+    private long missCount = 0;
+    private long evictionCount = 0;
+
+    /**
+     * Creates empty cache
+     *
+     * @param maxBytes memory ceiling of the cache in bytes
+     */
+    public MemoryCanonicalizationCache(long maxBytes) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("negative maxBytes");
+        }
+        this.maxBytes = maxBytes;
+    }
+
+    @Override
+    public synchronized byte[] get(String key) {
+        if (key == null) {
+            throw new NullPointerException("key");
+        }
+        final byte[] value = entries.get(key);
+        if (value == null) {
+            missCount++;
+        } else {
+            hitCount++;
+        }
+        return value;
+    }
+
+    @Override
+    public synchronized void put(String key, byte[] value) {
+        if (key == null) {
+            throw new NullPointerException("key");
+        }
+        if (value == null) {
+            throw new NullPointerException("value");
+        }
+        final long size = entrySize(key, value);
+        if (size > maxBytes) {
+            return;
+        }
+        final byte[] previous = entries.put(key, value);
+        if (previous != null) {
+            bytes -= entrySize(key, previous);
+        }
+        bytes += size;
+        final Iterator<Map.Entry<String, byte[]>> eldest = entries.entrySet().iterator();
+        while (bytes > maxBytes) {
+            final Map.Entry<String, byte[]> entry = eldest.next();
+            bytes -= entrySize(entry.getKey(), entry.getValue());
+            eldest.remove();
+            evictionCount++;
+        }
+    }
+
+    /**
+     * Removes all the entries, counters are kept.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    /**
+     * @return number of cached outputs
+     */
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    /**
+     * @return approximate memory taken by the cached outputs in bytes
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return memory ceiling of the cache in bytes
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @return number of lookups which found the output
+     */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * @return number of lookups which did not find the output
+     */
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * @return number of entries discarded to keep the memory ceiling
+     */
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "MemoryCanonicalizationCache{entries=" + entries.size() + ", bytes=" + bytes
+                + ", hits=" + hitCount + ", misses=" + missCount + ", evictions=" + evictionCount + "}";
+    }
+
+    private static long entrySize(String key, byte[] value) {
+        return ENTRY_OVERHEAD + 2L * key.length() + value.length;
+    }
+
+}
@@ -0,0 +1,116 @@
+/**
+ * Copyright 2013 MIR@MU Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cz.muni.fi.mir.mathmlcanonicalization;
+
+import java.util.List;
+
+import cz.muni.fi.mir.mathmlcanonicalization.modules.ElementVisitorModule;
+import cz.muni.fi.mir.mathmlcanonicalization.modules.Module;
+import cz.muni.fi.mir.mathmlcanonicalization.modules.StreamFilterModule;
+
+/**
+ * Listener of the canonicalization steps of {@link MathMLCanonicalizer}.
+ *
+ * All the methods of a document are called by the thread canonicalizing it,
+ * between {@link #documentStarted()} and {@link #documentFinished(long, long)}
+ * or {@link #documentFailed(Exception)}, so the steps of a document can be
+ * summed up per thread. A listener of a compiled canonicalizer is called by
+ * all the threads using it. Times are in nanoseconds, allocated bytes are
+ * those allocated by the canonicalizing thread or -1 when the JVM cannot
+ * measure them. Methods do nothing by default.
+ */
+public interface PipelineListener {
+
+    /**
+     * Canonicalization of a document started.
+     */
+    default void documentStarted() {
+    }
+
+    /**
+     * The input was parsed.
+     *
+     * Stream modules chained as filters ({@link StreamFilterModule}) process
+     * the input while it is parsed. The time they took advancing their
+     * readers is reported by {@link #moduleExecuted(Module, long, long)} and
+     * not included here; with no DOM modules the serialization of the result
+     * is included.
+     *
+     * @param nanos time of parsing
+     * @param allocatedBytes bytes allocated while parsing
+     */
+    default void parsed(long nanos, long allocatedBytes) {
+    }
+
+    /**
+     * A module processed the document.
+     *
+     * @param module the module
+     * @param nanos time of the module execution
+     * @param allocatedBytes bytes allocated by the module
+     */
+    default void moduleExecuted(Module module, long nanos, long allocatedBytes) {
+    }
+
+    /**
+     * Modules fused into a single walk of the document processed it, see
+     * {@link MathMLCanonicalizer#setFusingDOMModules(boolean)}.
+     *
+     * @param modules the fused modules in order of the configuration
+     * @param nanos time of the walk
+     * @param allocatedBytes bytes allocated during the walk
+     */
+    default void modulesExecuted(List<ElementVisitorModule> modules, long nanos, long allocatedBytes) {
+    }
+
+    /**
+     * A module counted its changes of the document (mrow elements removed,
+     * operators replaced, ...).
+     *
+     * @param module the module
+     * @param counter name of the counter specified by the module
+     * @param delta value to be added to the counter
+     */
+    default void counted(Module module, String counter, long delta) {
+    }
+
+    /**
+     * The document was serialized.
+     *
+     * @param nanos time of serialization
+     * @param allocatedBytes bytes allocated while serializing
+     */
+    default void serialized(long nanos, long allocatedBytes) {
+    }
+
+    /**
+     * The document was canonicalized.
+     *
+     * @param nanos time of the whole canonicalization
+     * @param allocatedBytes bytes allocated during the whole canonicalization
+     */
+    default void documentFinished(long nanos, long allocatedBytes) {
+    }
+
+    /**
+     * The document could not be canonicalized.
+     *
+     * @param ex the exception thrown by the canonicalizer
+     */
+    default void documentFailed(Exception ex) {
+    }
+
+}
@@ -0,0 +1,256 @@
+/**
+ * Copyright 2013 MIR@MU Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cz.muni.fi.mir.mathmlcanonicalization;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import cz.muni.fi.mir.mathmlcanonicalization.modules.ElementVisitorModule;
+import cz.muni.fi.mir.mathmlcanonicalization.modules.Module;
+
+/**
+ * Pipeline listener summing up the canonicalization steps of all documents.
+ *
+ * Steps are parsing ({@link #PARSE}), serialization ({@link #SERIALIZE}) and
+ * modules named by their simple class names; modules fused into a single walk
+ * are a single step named by the modules joined by '+'. Counters of module
+ * changes are named by the module and the counter separated by '.', e.g.
+ * {@code MrowNormalizer.mrowsRemoved}. The statistics can be shared by any
+ * number of canonicalizers and threads.
+ */
+public class PipelineStatistics implements PipelineListener {
+
+    /**
+     * Step of parsing the input
+     */
+    public static final String PARSE = "parse";
+    /**
+     * Step of serializing the output
+     */
+    public static final String SERIALIZE = "serialize";
+
+    private final LongAdder documentCount = new LongAdder();
+    private final LongAdder failureCount = new LongAdder();
+    private final Step documents = new Step();
+    private final ConcurrentMap<String, Step> steps = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+
+    @Override
+    public void parsed(long nanos, long allocatedBytes) {
+        step(PARSE).add(nanos, allocatedBytes);
+    }
+
+    @Override
+    public void moduleExecuted(Module module, long nanos, long allocatedBytes) {
+        step(module.getClass().getSimpleName()).add(nanos, allocatedBytes);
+    }
+
+    @Override
+    public void modulesExecuted(List<ElementVisitorModule> modules, long nanos, long allocatedBytes) {
+        final StringBuilder name = new StringBuilder();
+        for (Module module : modules) {
+            if (name.length() > 0) {
+                name.append('+');
+            }
+            name.append(module.getClass().getSimpleName());
+        }
+        step(name.toString()).add(nanos, allocatedBytes);
+    }
+
+    @Override
+    public void counted(Module module, String counter, long delta) {
+        final String name = module.getClass().getSimpleName() + '.' + counter;
+        LongAdder value = counters.get(name);
+        if (value == null) {
+            counters.putIfAbsent(name, new LongAdder());
+            value = counters.get(name);
+        }
+        value.add(delta);
+    }
+
+    @Override
+    public void serialized(long nanos, long allocatedBytes) {
+        step(SERIALIZE).add(nanos, allocatedBytes);
+    }
+
+    @Override
+    public void documentFinished(long nanos, long allocatedBytes) {
+        documentCount.increment();
+        documents.add(nanos, allocatedBytes);
+    }
+
+    @Override
+    public void documentFailed(Exception ex) {
+        failureCount.increment();
+    }
+
+    /**
+     * @return number of canonicalized documents
+     */
+    public long getDocumentCount() {
+        return documentCount.sum();
+    }
+
+    /**
+     * @return number of documents which could not be canonicalized
+     */
+    public long getFailureCount() {
+        return failureCount.sum();
+    }
+
+    /**
+     * @return total time of canonicalized documents in nanoseconds
+     */
+    public long getDocumentNanos() {
+        return documents.nanos.sum();
+    }
+
+    /**
+     * @return bytes allocated while canonicalizing the documents or -1 if not
+     * measured
+     */
+    public long getDocumentAllocatedBytes() {
+        return documents.getAllocatedBytes();
+    }
+
+    /**
+     * @return names of the steps executed so far
+     */
+    public Set<String> getStepNames() {
+        return Collections.unmodifiableSet(steps.keySet());
+    }
+
+    /**
+     * @param step name of the step
+     * @return number of executions of the step
+     */
+    public long getStepCount(String step) {
+        final Step value = steps.get(step);
+        return value == null ? 0 : value.count.sum();
+    }
+
+    /**
+     * @param step name of the step
+     * @return total time of the step in nanoseconds
+     */
+    public long getStepNanos(String step) {
+        final Step value = steps.get(step);
+        return value == null ? 0 : value.nanos.sum();
+    }
+
+    /**
+     * @param step name of the step
+     * @return bytes allocated by the step or -1 if not measured
+     */
+    public long getStepAllocatedBytes(String step) {
+        final Step value = steps.get(step);
+        return value == null ? 0 : value.getAllocatedBytes();
+    }
+
+    /**
+     * @param counter name of the counter, module and counter separated by '.'
+     * @return value of the counter
+     */
+    public long getCounter(String counter) {
+        final LongAdder value = counters.get(counter);
+        return value == null ? 0 : value.sum();
+    }
+
+    /**
+     * @return values of all counters sorted by name
+     */
+    public Map<String, Long> getCounters() {
+        final Map<String, Long> result = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> counter : counters.entrySet()) {
+            result.put(counter.getKey(), counter.getValue().sum());
+        }
+        return result;
+    }
+
+    /**
+     * Resets all the statistics.
+     */
+    public void reset() {
+        documentCount.reset();
+        failureCount.reset();
+        documents.reset();
+        steps.clear();
+        counters.clear();
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder result = new StringBuilder("PipelineStatistics{documents=")
+                .append(getDocumentCount()).append(", failures=").append(getFailureCount())
+                .append(", ms=").append(getDocumentNanos() / 1000000);
+        for (Map.Entry<String, Step> step : new TreeMap<>(steps).entrySet()) {
+            result.append(", ").append(step.getKey()).append("={count=").append(step.getValue().count.sum())
+                    .append(", ms=").append(step.getValue().nanos.sum() / 1000000)
+                    .append(", bytes=").append(step.getValue().getAllocatedBytes()).append('}');
+        }
+        for (Map.Entry<String, Long> counter : getCounters().entrySet()) {
+            result.append(", ").append(counter.getKey()).append('=').append(counter.getValue());
+        }
+        return result.append('}').toString();
+    }
+
+    private Step step(String name) {
+        Step step = steps.get(name);
+        if (step == null) {
+            steps.putIfAbsent(name, new Step());
+            step = steps.get(name);
+        }
+        return step;
+    }
+
+    private static final class Step {
+
+        private final LongAdder count = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+        private final LongAdder allocatedBytes = new LongAdder();
+        // allocated bytes not measured by some execution
+        private volatile boolean unmeasured = false;
+
+        void add(long nanos, long allocatedBytes) {
+            count.increment();
+            this.nanos.add(nanos);
+            if (allocatedBytes < 0) {
+                unmeasured = true;
+            } else {
+                this.allocatedBytes.add(allocatedBytes);
+            }
+        }
+
+        long getAllocatedBytes() {
+            return unmeasured ? -1 : allocatedBytes.sum();
+        }
+
+        void reset() {
+            count.reset();
+            nanos.reset();
+            allocatedBytes.reset();
+            unmeasured = false;
+        }
+
+    }
+
+}
@@ -15,10 +15,13 @@
  */
 package cz.muni.fi.mir.mathmlcanonicalization;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
 import java.util.Properties;
+import java.util.Set;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.xml.XMLConstants;
@@ -29,11 +32,14 @@ import javax.xml.stream.XMLOutputFactory;
 import javax.xml.stream.XMLResolver;
 import javax.xml.validation.SchemaFactory;
 
+import org.apache.commons.io.IOUtils;
 import org.jdom2.input.SAXBuilder;
 import org.jdom2.input.sax.XMLReaders;
 import org.xml.sax.EntityResolver;
 import org.xml.sax.InputSource;
 
+import cz.muni.fi.mir.mathmlcanonicalization.utils.DTDManipulator;
+
 /**
  * Global settings shared among all instances.
  *
@@ -62,6 +68,11 @@ public class Settings {
 
     private static final Properties PROPERTIES = readConfiguration();
 
+    // minified DTD kept in memory, see getXHTMLPlusMathMLPlusSVGDTD
+    private static volatile CachedResource cachedDTD;
+    // settings of the compiled canonicalizer used by the current thread
+    private static final ThreadLocal<Snapshot> SNAPSHOT = new ThreadLocal<>();
+
     /**
      * Gets given global property from {@link
      * cz.muni.fi.mir.mathmlcanonicalization.Settings#PROPERTIES_FILENAME}
@@ -94,6 +105,15 @@ public class Settings {
         return PROPERTIES.getProperty(key) != null;
     }
 
+    /**
+     * Gets names of all the global properties
+     *
+     * @return property names
+     */
+    public static Set<String> getPropertyNames() {
+        return PROPERTIES.stringPropertyNames();
+    }
+
     /**
      * Sets given global property
      *
@@ -192,6 +212,66 @@ public class Settings {
         }
     }
 
+    /**
+     * Returns stream of the XHTML 1.1 plus MathML 2.0 plus SVG 1.1 DTD.
+     *
+     * The resource is read only once (again only when the property changes)
+     * and kept in memory without comments and redundant white space, so the
+     * documents referencing the DTD do not read it from the classpath. The
+     * DTD is still parsed for each of these documents. When a snapshot is
+     * bound to the current thread, its DTD is returned.
+     */
+    public static InputStream getXHTMLPlusMathMLPlusSVGDTD() {
+        final Snapshot snapshot = SNAPSHOT.get();
+        final CachedResource dtd = snapshot == null ? getCachedDTD() : snapshot.dtd;
+        return new ByteArrayInputStream(dtd.content);
+    }
+
+    /**
+     * Takes a snapshot of the global properties and of the DTD they refer to.
+     *
+     * @return settings not affected by later changes of the global properties
+     */
+    static Snapshot snapshot() {
+        final Properties properties = new Properties();
+        for (String key : getPropertyNames()) {
+            properties.setProperty(key, getProperty(key));
+        }
+        return new Snapshot(properties, getCachedDTD());
+    }
+
+    /**
+     * Binds the snapshot to the current thread, so that the XML parsers of the
+     * thread read the DTD of the snapshot.
+     *
+     * @param snapshot settings used by the current thread or null to unbind
+     * @return the previously bound snapshot or null
+     */
+    static Snapshot bind(final Snapshot snapshot) {
+        final Snapshot previous = SNAPSHOT.get();
+        if (snapshot == null) {
+            SNAPSHOT.remove();
+        } else {
+            SNAPSHOT.set(snapshot);
+        }
+        return previous;
+    }
+
+    private static CachedResource getCachedDTD() {
+        final String resource = getProperty(XHTMLPlusMATHMLPlusSVGDTD);
+        CachedResource cached = cachedDTD;
+        if (cached == null || !cached.name.equals(resource)) {
+            try (InputStream in = getStreamFromProperty(XHTMLPlusMATHMLPlusSVGDTD)) {
+                cached = new CachedResource(resource, DTDManipulator.minifyDTD(IOUtils.toByteArray(in)));
+            } catch (IOException e) {
+                throw new ConfigError("Classpath resource '" + resource + "' could not be read", e);
+            }
+            cachedDTD = cached;
+            LOGGER.log(Level.FINE, "DTD {0} cached", resource);
+        }
+        return cached;
+    }
+
     private Settings() {
         assert false;
     }
@@ -214,6 +294,42 @@ public class Settings {
         return result;
     }
 
+    // content of a classpath resource
+    private static class CachedResource {
+
+        private final String name;
+        private final byte[] content;
+
+        CachedResource(String name, byte[] content) {
+            this.name = name;
+            this.content = content;
+        }
+
+    }
+
+    /**
+     * Global settings frozen for a compiled canonicalizer
+     */
+    static final class Snapshot {
+
+        private final Properties properties;
+        private final CachedResource dtd;
+
+        private Snapshot(Properties properties, CachedResource dtd) {
+            this.properties = properties;
+            this.dtd = dtd;
+        }
+
+        Set<String> getPropertyNames() {
+            return properties.stringPropertyNames();
+        }
+
+        String getProperty(String key) {
+            return properties.getProperty(key);
+        }
+
+    }
+
     // single container for XML factories
     private static class XmlFactories {
 
@@ -258,10 +374,11 @@ public class Settings {
             builder.setEntityResolver(new EntityResolver() {
                 @Override
                 public InputSource resolveEntity(String publicId, String systemId) {
-                    if (publicId.equalsIgnoreCase("-//W3C//DTD XHTML 1.1 plus MathML 2.0 plus SVG 1.1//EN")
-                            || publicId.equalsIgnoreCase("-//W3C//DTD XHTML 1.1 plus MathML 2.0//EN")
-                            || systemId.endsWith("xhtml-math11-f.dtd")) {
-                        return new InputSource(getStreamFromProperty(XHTMLPlusMATHMLPlusSVGDTD));
+                    if (publicId != null
+                            && (publicId.equalsIgnoreCase("-//W3C//DTD XHTML 1.1 plus MathML 2.0 plus SVG 1.1//EN")
+                            || publicId.equalsIgnoreCase("-//W3C//DTD XHTML 1.1 plus MathML 2.0//EN"))
+                            || systemId != null && systemId.endsWith("xhtml-math11-f.dtd")) {
+                        return new InputSource(getXHTMLPlusMathMLPlusSVGDTD());
                     }
                     return null;
                 }
@@ -281,7 +398,7 @@ public class Settings {
                 @Override
                 public Object resolveEntity(String publicID, String systemID, String baseURI, String namespace) {
                     if (systemID.endsWith("dtd")) {
-                        return getStreamFromProperty(XHTMLPlusMATHMLPlusSVGDTD);
+                        return getXHTMLPlusMathMLPlusSVGDTD();
                     }
                     return null;
                 }
@@ -0,0 +1,132 @@
+/**
+ * Copyright 2013 MIR@MU Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cz.muni.fi.mir.mathmlcanonicalization;
+
+import java.io.InputStream;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import cz.muni.fi.mir.mathmlcanonicalization.modules.Module;
+
+/**
+ * JDK Flight Recorder events of documents and canonicalization stages.
+ *
+ * The events are implemented by {@code JfrStageEvents}, which is compiled
+ * only by JDK 11 and newer. When it is missing or the JVM has no Flight
+ * Recorder, all the methods do nothing. Events are started only while being
+ * recorded, otherwise {@link #begin()} returns null.
+ */
+abstract class StageEvents {
+
+    static final String PARSE = "parse";
+    static final String MODULE = "module";
+    static final String REMOVE_DTD = "removeDTD";
+    static final String SERIALIZE = "serialize";
+
+    private static final Logger LOGGER = Logger.getLogger(StageEvents.class.getName());
+    private static final String IMPLEMENTATION = StageEvents.class.getPackage().getName() + ".JfrStageEvents";
+
+    /**
+     * Events of this JVM
+     */
+    static final StageEvents EVENTS = load();
+
+    /**
+     * Starts document event of the current thread.
+     *
+     * @param in input document
+     * @return input document, counting its size while the document is
+     * recorded
+     */
+    abstract InputStream beginDocument(InputStream in);
+
+    /**
+     * Commits document event of the current thread, if any.
+     */
+    abstract void endDocument();
+
+    /**
+     * Starts stage event.
+     *
+     * @return the event or null if not recorded
+     */
+    abstract Object begin();
+
+    /**
+     * Commits stage event.
+     *
+     * @param event event returned by {@link #begin()}
+     * @param stage stage name
+     */
+    abstract void commit(Object event, String stage);
+
+    /**
+     * Commits event of module execution.
+     *
+     * @param event event returned by {@link #begin()}
+     * @param module the executed module
+     */
+    abstract void commit(Object event, Module module);
+
+    /**
+     * Commits event of modules fused into a single walk.
+     *
+     * @param event event returned by {@link #begin()}
+     * @param modules the executed modules
+     */
+    abstract void commit(Object event, List<? extends Module> modules);
+
+    private static StageEvents load() {
+        try {
+            return (StageEvents) Class.forName(IMPLEMENTATION).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError ex) {
+            LOGGER.log(Level.FINE, "Flight Recorder events not available", ex);
+            return new Disabled();
+        }
+    }
+
+    private static final class Disabled extends StageEvents {
+
+        @Override
+        InputStream beginDocument(InputStream in) {
+            return in;
+        }
+
+        @Override
+        void endDocument() {
+        }
+
+        @Override
+        Object begin() {
+            return null;
+        }
+
+        @Override
+        void commit(Object event, String stage) {
+        }
+
+        @Override
+        void commit(Object event, Module module) {
+        }
+
+        @Override
+        void commit(Object event, List<? extends Module> modules) {
+        }
+
+    }
+
+}
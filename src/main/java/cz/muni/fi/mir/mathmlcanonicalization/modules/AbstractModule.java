@@ -15,11 +15,16 @@
  */
 package cz.muni.fi.mir.mathmlcanonicalization.modules;
 
+import java.util.ArrayDeque;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.jdom2.Attribute;
@@ -34,6 +39,8 @@ import org.jdom2.Namespace;
 abstract class AbstractModule implements Module {
 
     protected final Properties properties = new Properties();
+    // property values split by getPropertySet, reset when the property changes
+    private final Map<String, Set<String>> propertySets = new ConcurrentHashMap<>();
     private static final Logger LOGGER = Logger.getLogger(AbstractModule.class.getName());
     protected static final Namespace MATHMLNS = Namespace.getNamespace("http://www.w3.org/1998/Math/MathML");
     // MathML elements
@@ -78,10 +85,21 @@ abstract class AbstractModule implements Module {
             throw new NullPointerException("value");
         }
         properties.setProperty(key, value);
+        propertySets.remove(key);
+        configurationChanged();
     }
 
     public void declareProperty(String key) {
         properties.setProperty(key, "");
+        propertySets.remove(key);
+        configurationChanged();
+    }
+
+    /**
+     * Called whenever a property changes. Modules keeping structures compiled
+     * from their properties should discard them here.
+     */
+    protected void configurationChanged() {
     }
 
     @Override
@@ -103,9 +121,153 @@ abstract class AbstractModule implements Module {
                 + "' is not a valid boolean value of " + key);
     }
 
+    /**
+     * Reports changes of the document to the pipeline listener, if any.
+     *
+     * @param counter name of the counter
+     * @param delta value to be added to the counter
+     */
+    protected void count(final String counter, final long delta) {
+        ModuleCounters.count(this, counter, delta);
+    }
+
+    /**
+     * Gets space separated values of the property.
+     *
+     * The property is split only once until it changes.
+     *
+     * @param property property name
+     * @return unmodifiable set of the property values
+     */
     protected Set<String> getPropertySet(final String property) {
         assert property != null && !property.isEmpty();
-        return new HashSet<>(Arrays.asList(getProperty(property).split(" ")));
+        Set<String> propertySet = propertySets.get(property);
+        if (propertySet == null) {
+            propertySet = Collections.unmodifiableSet(
+                    new HashSet<>(Arrays.asList(getProperty(property).split(" "))));
+            propertySets.put(property, propertySet);
+        }
+        return propertySet;
+    }
+
+    /**
+     * Action performed on elements before their descendants
+     */
+    protected interface PreOrderVisitor {
+
+        /**
+         * Processes the element before its descendants.
+         *
+         * The visitor may change the content of the element, the children are
+         * walked as they are after the visit. It may also replace the element
+         * in its parent by other elements or remove it, the elements put in
+         * its place are then walked instead of it. The root of the walk must
+         * not be replaced.
+         *
+         * @param element element to be processed
+         * @return true if the children of the element should be walked
+         */
+        boolean visit(Element element);
+    }
+
+    /**
+     * Action performed on elements after their descendants
+     */
+    protected interface PostOrderVisitor {
+
+        /**
+         * Processes the element after its descendants.
+         *
+         * The visitor may change the content of the element, or replace the
+         * element in its parent by other elements or remove it. The elements
+         * put in its place are not walked. The root of the walk must not be
+         * replaced.
+         *
+         * @param element element to be processed
+         */
+        void visit(Element element);
+    }
+
+    /**
+     * Walks the subtree of the element and visits the elements before their
+     * descendants.
+     *
+     * The walk is iterative, so it does not run out of stack for deeply
+     * nested documents, and it does not copy the lists of children.
+     *
+     * @param root element to start at, visited first
+     * @param visitor action performed on the elements
+     */
+    protected static void walkPreOrder(final Element root, final PreOrderVisitor visitor) {
+        assert root != null && visitor != null;
+        if (!visitor.visit(root)) {
+            return;
+        }
+        // the child lists are kept, a new list would look up its elements again
+        final Deque<List<Element>> lists = new ArrayDeque<>();
+        final Deque<Integer> nextChild = new ArrayDeque<>();
+        lists.push(root.getChildren());
+        nextChild.push(0);
+        while (!lists.isEmpty()) {
+            final List<Element> children = lists.peek();
+            final int index = nextChild.pop();
+            if (index >= children.size()) {
+                lists.pop();
+                continue;
+            }
+            final Element child = children.get(index);
+            final boolean walkChildren = visitor.visit(child);
+            if (index >= children.size() || children.get(index) != child) {
+                // replaced or removed, continue with what is in its place
+                nextChild.push(index);
+                continue;
+            }
+            nextChild.push(index + 1);
+            if (walkChildren) {
+                lists.push(child.getChildren());
+                nextChild.push(0);
+            }
+        }
+    }
+
+    /**
+     * Walks the subtree of the element and visits the elements after their
+     * descendants.
+     *
+     * The walk is iterative, so it does not run out of stack for deeply
+     * nested documents, and it does not copy the lists of children.
+     *
+     * @param root element to start at, visited last
+     * @param visitor action performed on the elements
+     */
+    protected static void walkPostOrder(final Element root, final PostOrderVisitor visitor) {
+        assert root != null && visitor != null;
+        // the child lists are kept, a new list would look up its elements again
+        final Deque<List<Element>> lists = new ArrayDeque<>();
+        final Deque<Integer> nextChild = new ArrayDeque<>();
+        lists.push(root.getChildren());
+        nextChild.push(0);
+        while (true) {
+            final List<Element> children = lists.peek();
+            final int index = nextChild.peek();
+            if (index < children.size()) {
+                lists.push(children.get(index).getChildren());
+                nextChild.push(0);
+                continue;
+            }
+            lists.pop();
+            nextChild.pop();
+            if (lists.isEmpty()) {
+                visitor.visit(root);
+                return;
+            }
+            // skip the elements put in place of the visited one
+            final List<Element> siblings = lists.peek();
+            final int position = nextChild.pop();
+            final int siblingCount = siblings.size();
+            visitor.visit(siblings.get(position));
+            nextChild.push(position + 1 + siblings.size() - siblingCount);
+        }
     }
 
     protected boolean isOperator(final Element element, final String operator) {
@@ -16,21 +16,20 @@
 package cz.muni.fi.mir.mathmlcanonicalization.modules;
 
 import cz.muni.fi.mir.mathmlcanonicalization.Settings;
+import cz.muni.fi.mir.mathmlcanonicalization.utils.XMLStreamCopier;
 import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
-import java.io.OutputStream;
-import java.nio.charset.StandardCharsets;
-import java.util.Arrays;
-import java.util.List;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import javax.xml.stream.XMLInputFactory;
-import javax.xml.stream.XMLOutputFactory;
+import javax.xml.namespace.QName;
 import javax.xml.stream.XMLStreamConstants;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamReader;
-import javax.xml.stream.XMLStreamWriter;
+import javax.xml.stream.util.StreamReaderDelegate;
 
 /**
  * Remove useless elements and attributes from MathML.
@@ -51,17 +50,19 @@ import javax.xml.stream.XMLStreamWriter;
  *
  * @author Maros Kucbel
  */
-public class ElementMinimizer extends AbstractModule implements StreamModule {
+public class ElementMinimizer extends AbstractModule implements StreamFilterModule {
 
     private static final Logger LOGGER = Logger.getLogger(ElementMinimizer.class.getName());
-
-    private Set<String> removeWithChildren;
-    private Set<String> removeKeepChildren;
+    // properties key names
+    private static final String KEEP_ATTRIBUTES = "keepAttributes";
+    private static final String KEEP_ATTRIBUTES_PREFIX = KEEP_ATTRIBUTES + ".";
+    // compiled lazily from the properties, reset when they change
+    private volatile KeepAttributes keepAttributes;
 
     public ElementMinimizer() {
         declareProperty("remove_all");
         declareProperty("remove");
-        declareProperty("keepAttributes");
+        declareProperty(KEEP_ATTRIBUTES);
         declareProperty("keepAttributes.mfrac");
         declareProperty("keepAttributes.cn");
         declareProperty("keepAttributes.ci");
@@ -77,12 +78,10 @@ public class ElementMinimizer extends AbstractModule implements StreamModule {
         if (input == null) {
             throw new NullPointerException("input");
         }
-        removeWithChildren = getPropertySet("remove_all");
-        removeKeepChildren = getPropertySet("remove");
-
         final ByteArrayOutputStream output = new ByteArrayOutputStream();
         try {
-            minimizeElements(input, output);
+            final XMLStreamReader reader = Settings.setupXMLInputFactory().createXMLStreamReader(input);
+            XMLStreamCopier.copy(filter(reader), output);
         } catch (XMLStreamException ex) {
             LOGGER.log(Level.SEVERE, "error while parsing the input file. ", ex);
             throw new ModuleException("Error while parsing the input file", ex);
@@ -90,61 +89,161 @@ public class ElementMinimizer extends AbstractModule implements StreamModule {
         return output;
     }
 
+    @Override
+    public XMLStreamReader filter(final XMLStreamReader reader) {
+        if (reader == null) {
+            throw new NullPointerException("reader");
+        }
+        return new MinimizingReader(reader, getPropertySet("remove_all"), getPropertySet("remove"),
+                getKeepAttributes());
+    }
+
+    @Override
+    protected void configurationChanged() {
+        keepAttributes = null;
+    }
+
     /**
-     * Decides which attributes to keep based on keepAttributes properties.
+     * Returns attributes to keep compiled from keepAttributes properties.
      */
-    private boolean keepAttribute(final String name, final String attributeName,
-            final String attributeValue) {
-        assert name != null && attributeName != null && attributeValue != null;
-        assert !name.isEmpty() && !attributeName.isEmpty();
-        String property = getProperty("keepAttributes");
-        final String elementPropertyName = "keepAttributes." + name;
-        if (isProperty(elementPropertyName)) {
-            property += " " + getProperty(elementPropertyName);
-        }
-        final List<String> whitelist = Arrays.asList(property.split(" "));
-        for (String attribute : whitelist) {
-            if (attributeName.equals(attribute)
-                    || attribute.contains("=")
-                    && attributeName.equals(attribute.substring(0, attribute.lastIndexOf('=')))
-                    && attributeValue.equals(attribute.substring(attribute.lastIndexOf('=') + 1))) {
+    private KeepAttributes getKeepAttributes() {
+        KeepAttributes result = keepAttributes;
+        if (result == null) {
+            result = new KeepAttributes();
+            keepAttributes = result;
+        }
+        return result;
+    }
+
+    /**
+     * Attributes to keep compiled from keepAttributes properties, so that no
+     * property has to be parsed for each attribute.
+     */
+    private final class KeepAttributes {
+
+        private final AttributeWhitelist common;
+        // whitelists of elements with their own property, including the common one
+        private final Map<String, AttributeWhitelist> elements = new HashMap<>();
+
+        KeepAttributes() {
+            final String property = getProperty(KEEP_ATTRIBUTES);
+            common = new AttributeWhitelist(property);
+            for (String propertyName : getPropertyNames()) {
+                if (propertyName.startsWith(KEEP_ATTRIBUTES_PREFIX)) {
+                    elements.put(propertyName.substring(KEEP_ATTRIBUTES_PREFIX.length()),
+                            new AttributeWhitelist(property + " " + getProperty(propertyName)));
+                }
+            }
+        }
+
+        /**
+         * Decides which attributes to keep based on keepAttributes properties.
+         */
+        boolean keepAttribute(final String name, final String attributeName,
+                final String attributeValue) {
+            assert name != null && attributeName != null && attributeValue != null;
+            assert !name.isEmpty() && !attributeName.isEmpty();
+            final AttributeWhitelist whitelist = elements.get(name);
+            return (whitelist == null ? common : whitelist).contains(attributeName, attributeValue);
+        }
+
+    }
+
+    /**
+     * Whitelist of attributes given by space separated attribute names, each
+     * optionally with the only allowed value after the last '='.
+     */
+    private static final class AttributeWhitelist {
+
+        private final Set<String> names = new HashSet<>();
+        private final Map<String, Set<String>> values = new HashMap<>();
+
+        AttributeWhitelist(final String property) {
+            for (String attribute : property.split(" ")) {
+                names.add(attribute);
+                final int separator = attribute.lastIndexOf('=');
+                if (separator != -1) {
+                    final String attributeName = attribute.substring(0, separator);
+                    Set<String> attributeValues = values.get(attributeName);
+                    if (attributeValues == null) {
+                        attributeValues = new HashSet<>();
+                        values.put(attributeName, attributeValues);
+                    }
+                    attributeValues.add(attribute.substring(separator + 1));
+                }
+            }
+        }
+
+        boolean contains(final String attributeName, final String attributeValue) {
+            if (names.contains(attributeName)) {
                 return true;
             }
+            final Set<String> attributeValues = values.get(attributeName);
+            return attributeValues != null && attributeValues.contains(attributeValue);
         }
-        return false;
+
     }
 
-    private void minimizeElements(final InputStream input, final OutputStream outputStream)
-            throws XMLStreamException {
-        assert input != null && outputStream != null;
-        // TODO: refactoring
-        // TODO: add logging
-        final XMLInputFactory inputFactory = Settings.setupXMLInputFactory();
-        final XMLOutputFactory outputFactory = Settings.xmlOutputFactory();
-        // stream for reading event from input stream
-        final XMLStreamReader reader = inputFactory.createXMLStreamReader(input);
-        // stream that writes events to given output stream
-        final XMLStreamWriter writer = outputFactory.createXMLStreamWriter(outputStream, StandardCharsets.UTF_8.name());
-        writer.writeStartDocument(reader.getEncoding(), reader.getVersion());
+    /**
+     * Reader skipping the events of removed elements and hiding the removed
+     * attributes.
+     *
+     * Comments, processing instructions and other events not carrying the
+     * formula are skipped as well.
+     */
+    private class MinimizingReader extends StreamReaderDelegate {
+
+        private final Set<String> removeWithChildren;
+        private final Set<String> removeKeepChildren;
+        private final KeepAttributes keepAttributes;
         // depth of current branch, used when removing element with all its children
-        int depth = 0;
-        boolean mathElement = false;
-        // check for event
-        while (reader.hasNext()) {
-            // get event code
-            final int event = reader.next();
-            // based on event code choose action
+        private int depth = 0;
+        private boolean mathElement = false;
+        // indices of attributes of the current element which are kept
+        private int[] attributes = new int[8];
+        private int attributeCount = 0;
+
+        MinimizingReader(final XMLStreamReader reader, final Set<String> removeWithChildren,
+                final Set<String> removeKeepChildren, final KeepAttributes keepAttributes) {
+            super(reader);
+            this.removeWithChildren = removeWithChildren;
+            this.removeKeepChildren = removeKeepChildren;
+            this.keepAttributes = keepAttributes;
+        }
+
+        @Override
+        public int next() throws XMLStreamException {
+            while (true) {
+                final int event = super.next();
+                if (accept(event)) {
+                    return event;
+                }
+            }
+        }
+
+        @Override
+        public int nextTag() throws XMLStreamException {
+            int event = next();
+            while ((event == XMLStreamConstants.CHARACTERS && isWhiteSpace())
+                    || event == XMLStreamConstants.SPACE) {
+                event = next();
+            }
+            if (event != XMLStreamConstants.START_ELEMENT && event != XMLStreamConstants.END_ELEMENT) {
+                throw new XMLStreamException("expected start or end tag", getLocation());
+            }
+            return event;
+        }
+
+        private boolean accept(final int event) {
             switch (event) {
                 case XMLStreamConstants.START_ELEMENT: {
-                    // write this element
-                    // omit if it should be skipped
-                    String name = reader.getLocalName();
+                    final String name = getLocalName();
                     if (name.equals(MATH)) {
                         mathElement = true;
                     }
                     if (mathElement) {
                         if (removeKeepChildren.contains(name)) {
-                            continue;
+                            return false;
                         }
                         // omit this element if it is marked to skip or is a child
                         // of such an element
@@ -152,72 +251,110 @@ public class ElementMinimizer extends AbstractModule implements StreamModule {
                             depth++;
                         }
                         if (depth > 0) {
-                            continue;
-                        }
-                    }
-                    writer.writeStartElement(reader.getName().getPrefix(), name, reader.getName().getNamespaceURI());
-                    for (int index = 0; index < reader.getAttributeCount(); ++index) {
-                        final String attributeName = reader.getAttributeLocalName(index);
-                        final String attributeValue = reader.getAttributeValue(index);
-                        final String attributePrefix = reader.getAttributePrefix(index);
-                        final String attributeNamespace = reader.getAttributeNamespace(index);
-                        // write only chosen attributes
-                        if (!mathElement || (mathElement && keepAttribute(name, attributeName, attributeValue))) {
-                            if (attributeNamespace == null) {
-                                writer.writeAttribute(attributeName, attributeValue);
-                            } else {
-                                writer.writeAttribute(attributePrefix, attributeNamespace, attributeName, attributeValue);
-                            }
+                            return false;
                         }
                     }
-                    for (int index = 0; index < reader.getNamespaceCount(); ++index) {
-                        writer.writeNamespace(reader.getNamespacePrefix(index), reader.getNamespaceURI(index));
-                    }
-
-                    break;
+                    filterAttributes(name);
+                    return true;
                 }
                 case XMLStreamConstants.END_ELEMENT: {
                     if (mathElement) {
-                        String name = reader.getLocalName();
+                        final String name = getLocalName();
                         if (name.equals(MATH)) {
                             mathElement = false;
                         }
                         if (removeKeepChildren.contains(name)) {
-                            continue;
+                            return false;
                         }
                         if (depth > 0) {
                             if (removeWithChildren.contains(name)) {
                                 depth--;
                             }
-                            continue;
+                            return false;
                         }
                     }
-                    writer.writeEndElement();
-                    break;
+                    return true;
                 }
                 case XMLStreamConstants.CHARACTERS: {
                     // warning: white space is counted as CHARACTER event (new line after element)
-                    if (depth > 0) {
-                        continue;
-                    }
-                    writer.writeCharacters(reader.getText());
-                    break;
-                }
-                case XMLStreamConstants.END_DOCUMENT: {
-                    writer.writeEndDocument();
-                    break;
+                    return depth == 0;
                 }
+                case XMLStreamConstants.END_DOCUMENT:
                 case XMLStreamConstants.DTD: {
-                    writer.writeDTD(reader.getText());
-                    break;
+                    return true;
                 }
                 default: {
-                    break;
+                    return false;
+                }
+            }
+        }
+
+        private void filterAttributes(final String name) {
+            final int count = super.getAttributeCount();
+            if (attributes.length < count) {
+                attributes = new int[count];
+            }
+            attributeCount = 0;
+            for (int index = 0; index < count; ++index) {
+                // write only chosen attributes
+                if (!mathElement || keepAttributes.keepAttribute(name, super.getAttributeLocalName(index), super.getAttributeValue(index))) {
+                    attributes[attributeCount++] = index;
+                }
+            }
+        }
+
+        @Override
+        public int getAttributeCount() {
+            return attributeCount;
+        }
+
+        @Override
+        public QName getAttributeName(final int index) {
+            return super.getAttributeName(attributes[index]);
+        }
+
+        @Override
+        public String getAttributeNamespace(final int index) {
+            return super.getAttributeNamespace(attributes[index]);
+        }
+
+        @Override
+        public String getAttributeLocalName(final int index) {
+            return super.getAttributeLocalName(attributes[index]);
+        }
+
+        @Override
+        public String getAttributePrefix(final int index) {
+            return super.getAttributePrefix(attributes[index]);
+        }
+
+        @Override
+        public String getAttributeType(final int index) {
+            return super.getAttributeType(attributes[index]);
+        }
+
+        @Override
+        public String getAttributeValue(final int index) {
+            return super.getAttributeValue(attributes[index]);
+        }
+
+        @Override
+        public boolean isAttributeSpecified(final int index) {
+            return super.isAttributeSpecified(attributes[index]);
+        }
+
+        @Override
+        public String getAttributeValue(final String namespaceURI, final String localName) {
+            for (int index = 0; index < attributeCount; ++index) {
+                final QName attributeName = getAttributeName(index);
+                if (attributeName.getLocalPart().equals(localName)
+                        && (namespaceURI == null || namespaceURI.equals(attributeName.getNamespaceURI()))) {
+                    return getAttributeValue(index);
                 }
             }
+            return null;
         }
-        writer.flush();
-        writer.close();
+
     }
 
 }
@@ -0,0 +1,44 @@
+/**
+ * Copyright 2013 MIR@MU Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cz.muni.fi.mir.mathmlcanonicalization.modules;
+
+import org.jdom2.Element;
+
+/**
+ * DOM modules able to process the document element by element.
+ *
+ * Consecutive visitor modules can be fused into a single walk of the document
+ * in which each element is visited by all the modules in turn, the modules are
+ * then not required to traverse the whole document on their own.
+ *
+ * Elements are visited in post-order, i.e. after all their descendants. A
+ * visitor may change only the content of the visited element, it must neither
+ * detach the element nor change its ancestors or siblings. Its changes must
+ * not depend on content which the modules following it can change in the
+ * subtree of the visited element, so that visiting the whole document by one
+ * module after another gives the same result as the fused walk.
+ */
+public interface ElementVisitorModule extends DOMModule {
+
+    /**
+     * Processes the element in accordance with the module specification
+     *
+     * @param element element whose descendants were already visited
+     * @throws ModuleException when cannot transform the element by this module
+     */
+    public void visit(Element element) throws ModuleException;
+
+}
@@ -52,7 +52,14 @@ public class FunctionNormalizer extends AbstractModule implements DOMModule {
         if (doc == null) {
             throw new NullPointerException("doc");
         }
-        normalizeFunctionApplication(doc.getRootElement(), getPropertySet(APPLY_FUNCTION_OPERATORS));
+        final Collection<String> functionOperators = getPropertySet(APPLY_FUNCTION_OPERATORS);
+        walkPreOrder(doc.getRootElement(), new PreOrderVisitor() {
+            @Override
+            public boolean visit(final Element element) {
+                normalizeFunctionApplication(element, functionOperators);
+                return true;
+            }
+        });
     }
 
     // TODO: refactoring
@@ -103,8 +110,6 @@ public class FunctionNormalizer extends AbstractModule implements DOMModule {
                 }
                 children.set(i + 1, newParameter); // replace function app operator with newParameter
                 LOGGER.fine("Function application operator removed");
-            } else { // if there isnt start of function application apply normalization on children
-                normalizeFunctionApplication(children.get(i), functionOperators);
             }
         }
     }
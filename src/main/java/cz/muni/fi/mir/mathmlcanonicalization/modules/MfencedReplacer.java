@@ -60,6 +60,10 @@ import org.jdom2.filter.ElementFilter;
  */
 public class MfencedReplacer extends AbstractModule implements DOMModule {
 
+    /**
+     * Counter of replaced mfenced elements.
+     */
+    public static final String FENCED_REPLACED = "mfencedReplaced";
     private static final Logger LOGGER = Logger.getLogger(MfencedReplacer.class.getName());
     // MathML attributes
     private static final String OPEN_FENCE = "open";
@@ -102,6 +106,7 @@ public class MfencedReplacer extends AbstractModule implements DOMModule {
         for (Element mfenced : toReplace) {
             replaceMfenced(mfenced);
         }
+        count(FENCED_REPLACED, toReplace.size());
     }
 
     private void replaceMfenced(final Element mfencedElement) {
@@ -0,0 +1,67 @@
+/**
+ * Copyright 2013 MIR@MU Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cz.muni.fi.mir.mathmlcanonicalization.modules;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import cz.muni.fi.mir.mathmlcanonicalization.PipelineListener;
+
+/**
+ * Delivery of counters of module changes to the listener of the current
+ * thread.
+ *
+ * {@link cz.muni.fi.mir.mathmlcanonicalization.MathMLCanonicalizer} binds its
+ * listener to the thread for the time a document is canonicalized. When no
+ * thread has a listener, counting costs a single read of a shared variable.
+ */
+public final class ModuleCounters {
+
+    private static final ThreadLocal<PipelineListener> LISTENER = new ThreadLocal<>();
+    // number of threads with a listener bound
+    private static final AtomicInteger LISTENERS = new AtomicInteger();
+
+    private ModuleCounters() {
+    }
+
+    /**
+     * Binds the listener to the current thread.
+     *
+     * @param listener listener receiving counters of the modules executed by
+     * the current thread or null to unbind
+     * @return the previously bound listener or null
+     */
+    public static PipelineListener bind(final PipelineListener listener) {
+        final PipelineListener previous = LISTENER.get();
+        if (listener == null) {
+            LISTENER.remove();
+        } else {
+            LISTENER.set(listener);
+        }
+        LISTENERS.addAndGet((listener == null ? 0 : 1) - (previous == null ? 0 : 1));
+        return previous;
+    }
+
+    static void count(final Module module, final String counter, final long delta) {
+        if (delta == 0 || LISTENERS.get() == 0) {
+            return;
+        }
+        final PipelineListener listener = LISTENER.get();
+        if (listener != null) {
+            listener.counted(module, counter, delta);
+        }
+    }
+
+}
@@ -16,10 +16,17 @@
 package cz.muni.fi.mir.mathmlcanonicalization.modules;
 
 import static cz.muni.fi.mir.mathmlcanonicalization.modules.AbstractModule.MATHMLNS;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import org.jdom2.Content;
 import org.jdom2.Document;
 import org.jdom2.Element;
 import org.jdom2.Parent;
@@ -57,6 +64,14 @@ import org.jdom2.Parent;
  */
 public class MrowNormalizer extends AbstractModule implements DOMModule {
 
+    /**
+     * Counter of removed mrow elements.
+     */
+    public static final String ROWS_REMOVED = "mrowsRemoved";
+    /**
+     * Counter of added mrow elements.
+     */
+    public static final String ROWS_ADDED = "mrowsAdded";
     private static final Logger LOGGER = Logger.getLogger(MrowNormalizer.class.getName());
     // properties
     private static final String CHILD_COUNT_PREFIX = "childCount.";
@@ -64,6 +79,12 @@ public class MrowNormalizer extends AbstractModule implements DOMModule {
     private static final String CLOSING = "close";
     private static final String WRAP_ISIDE = "wrapInside";
     private static final String WRAP_OUTSIDE = "wrapOutside";
+    // kinds of operators
+    private static final int NOT_PARENTHESIS = 0;
+    private static final int OPENING_PARENTHESIS = 1;
+    private static final int CLOSING_PARENTHESIS = 2;
+    // parsed childCount properties by parent name, reset when properties change
+    private volatile Map<String, Integer> childCounts;
 
     public MrowNormalizer() {
         declareProperty(WRAP_OUTSIDE);
@@ -95,38 +116,22 @@ public class MrowNormalizer extends AbstractModule implements DOMModule {
         if (doc == null) {
             throw new NullPointerException("doc");
         }
-        traverseRemoval(doc.getRootElement());
-        traverseAddition(doc.getRootElement());
-    }
-
-    /**
-     * Recursively searches element content to possibly add mrow where needed
-     *
-     * @param element element to start at
-     */
-    private void traverseAddition(final Element element) {
-        assert element != null;
-        final List<Element> children = new ArrayList<>(element.getChildren());
-        for (Element child : children) {
-            traverseAddition(child);
-        }
-        checkAddition(element);
-    }
-
-    /**
-     * Recursively searches element content to possibly remove mrow where needed
-     *
-     * @param element element to start at
-     */
-    private void traverseRemoval(final Element element) {
-        assert element != null;
-        final List<Element> children = new ArrayList<>(element.getChildren());
-        for (Element child : children) {
-            traverseRemoval(child);
-        }
-        if (element.getName().equals(ROW)) {
-            checkRemoval(element);
-        }
+        // remove mrow where possible
+        walkPostOrder(doc.getRootElement(), new PostOrderVisitor() {
+            @Override
+            public void visit(final Element element) {
+                if (element.getName().equals(ROW)) {
+                    checkRemoval(element);
+                }
+            }
+        });
+        // add mrow where needed
+        walkPostOrder(doc.getRootElement(), new PostOrderVisitor() {
+            @Override
+            public void visit(final Element element) {
+                addRows(element);
+            }
+        });
     }
 
     /**
@@ -145,149 +150,232 @@ public class MrowNormalizer extends AbstractModule implements DOMModule {
 
         if (children.size() <= 1) {
             removeElement(mrowElement, parentElement);
+            count(ROWS_REMOVED, 1);
             LOGGER.log(Level.FINE, "Element \"{0}\" removed", mrowElement);
             return;
         }
 
-        final String childCountPropertyName = CHILD_COUNT_PREFIX + parentElement.getName();
-        if (!isProperty(childCountPropertyName)) {
-            return; // unknown parent element
-        }
-        final String childCountProperty = getProperty(childCountPropertyName);
-        final int childCount;
-        try {
-            childCount = Integer.parseInt(childCountProperty);
-        } catch (NumberFormatException e) {
-            LOGGER.log(Level.WARNING,
-                    "\"{0}\" is not an integer for \"" + childCountPropertyName + "\", property ignored", childCountProperty);
-            return;
+        final Integer childCount = getChildCounts().get(parentElement.getName());
+        if (childCount == null) {
+            return; // unknown parent element or invalid property
         }
 
         if (childCount == 1 || // parent can accept any number of elements so we can remove mrow
                 children.size() + parentElement.getChildren().size() - 1 == childCount) {
             removeElement(mrowElement, parentElement);
+            count(ROWS_REMOVED, 1);
         }
     }
 
+    @Override
+    protected void configurationChanged() {
+        childCounts = null;
+    }
+
+    /**
+     * Returns number of children accepted by parent elements according to
+     * childCount properties
+     */
+    private Map<String, Integer> getChildCounts() {
+        Map<String, Integer> result = childCounts;
+        if (result == null) {
+            result = new HashMap<>();
+            for (String childCountPropertyName : getPropertyNames()) {
+                if (!childCountPropertyName.startsWith(CHILD_COUNT_PREFIX)) {
+                    continue;
+                }
+                final String childCountProperty = getProperty(childCountPropertyName);
+                if (childCountProperty.isEmpty()) {
+                    continue; // not configured
+                }
+                try {
+                    result.put(childCountPropertyName.substring(CHILD_COUNT_PREFIX.length()),
+                            Integer.parseInt(childCountProperty));
+                } catch (NumberFormatException e) {
+                    LOGGER.log(Level.WARNING,
+                            "\"{0}\" is not an integer for \"" + childCountPropertyName + "\", property ignored", childCountProperty);
+                }
+            }
+            childCounts = result;
+        }
+        return result;
+    }
+
+    /**
+     * Replaces the element by its content, which is moved rather than copied
+     */
     private static void removeElement(final Element element, final Element parent) {
         assert element != null && parent != null;
-        parent.addContent(parent.indexOf(element), element.cloneContent());
+        final int index = parent.indexOf(element);
         element.detach();
+        parent.addContent(index, element.removeContent());
     }
 
     /**
-     * Test if element is an operator representing an opening or closing
-     * parenthesis according to properties
-     *
-     * @param element element to test
-     * @param propertyName name of property specifiyng opening or closing
-     * parentheses
-     * @return true if element is a parentheses according to propertyName
+     * Finds out whether the element is an operator representing an opening or
+     * a closing parenthesis according to properties, opening wins when in both
      */
-    private Boolean isParenthesis(final Element element, final String propertyName) {
-        assert element != null && propertyName != null && isProperty(propertyName);
+    private int getParenthesisKind(final Element element, final Set<String> opening,
+            final Set<String> closing) {
+        assert element != null && opening != null && closing != null;
         if (!element.getName().equals(OPERATOR)) {
-            return false;
+            return NOT_PARENTHESIS;
+        }
+        final String text = element.getTextNormalize();
+        if (opening.contains(text)) {
+            return OPENING_PARENTHESIS;
         }
-        return getPropertySet(propertyName).contains(element.getTextNormalize());
+        return closing.contains(text) ? CLOSING_PARENTHESIS : NOT_PARENTHESIS;
     }
 
     /**
-     * Wrap previously detected fenced expressions in mrow to be same as output
-     * of MfencedReplacer
+     * Wrap fenced expressions among children of the element in mrow to be same
+     * as output of MfencedReplacer.
      *
-     * @param siblings children of parent element
-     * @param fenced list of elements inside parentheses, children of parent
-     * element
-     * @param opening opening parenthesis, child of parent element
-     * @param closing closing parenthesis, child of parent element
+     * Parentheses are matched by a stack in a single pass over the children,
+     * unmatched ones are kept as they are. The fenced expressions are then
+     * wrapped from the innermost while the content of the element is rebuilt
+     * once, so the time is linear in the number of children. Content between
+     * outermost parentheses other than elements (text, comments) is placed
+     * after the fenced expression.
+     *
+     * @param parent element whose children are processed
      */
-    private void wrapFenced(final List<Element> siblings, final List<Element> fenced,
-            final Element opening, final Element closing) {
-        assert siblings != null && fenced != null && opening != null;
-        final Element parent = opening.getParentElement();
-        assert closing != null && closing.getParentElement().equals(parent);
-        for (Element e : fenced) {
-            e.detach();
+    private void addRows(final Element parent) {
+        assert parent != null;
+        final List<Element> children = parent.getChildren();
+        final int childCount = children.size();
+        if (childCount < 2) {
+            return;
         }
-        final int openingIndex = parent.indexOf(opening);
+        final Set<String> opening = getPropertySet(OPENING);
+        final Set<String> closing = getPropertySet(CLOSING);
 
-        // Element to be placed inside parentheses.
-        // If null, the original 'fenced' list will be used.
-        final Element innerElement;
-        if (fenced.isEmpty() || !isEnabled(WRAP_ISIDE)) {
-            innerElement = null; // will not wrap inside in mrow
-        } else if (fenced.size() == 1) {
-            innerElement = fenced.get(0); // no need to wrap, just one element
-        } else {
-            innerElement = new Element(ROW, MATHMLNS);
-            innerElement.addContent(fenced);
-            LOGGER.fine("Inner mrow added");
+        // index of the matching closing parenthesis for opening parentheses, -1 otherwise
+        final int[] matching = new int[childCount];
+        // index of the innermost enclosing opening parenthesis, -1 if none
+        final int[] enclosing = new int[childCount];
+        final int[] stack = new int[childCount];
+        int stackSize = 0;
+        boolean found = false;
+        for (int i = 0; i < childCount; i++) {
+            matching[i] = -1;
+            enclosing[i] = stackSize == 0 ? -1 : stack[stackSize - 1];
+            final int kind = getParenthesisKind(children.get(i), opening, closing);
+            if (kind == OPENING_PARENTHESIS) {
+                stack[stackSize++] = i;
+            } else if (kind == CLOSING_PARENTHESIS && stackSize > 0) {
+                matching[stack[--stackSize]] = i;
+                found = true;
+            }
+        }
+        if (!found) {
+            return;
         }
 
-        if (((parent.getName().equals(ROW)
-                && siblings.get(0) == opening
-                && siblings.get(siblings.size() - 1) == closing))
-                || !isEnabled(WRAP_OUTSIDE)) {
-            // will not wrap outside in mrow
-            if (innerElement == null) {
-                parent.addContent(openingIndex + 1, fenced);
+        final boolean wrapInside = isEnabled(WRAP_ISIDE);
+        final boolean wrapOutside = isEnabled(WRAP_OUTSIDE);
+        final boolean parentIsRow = parent.getName().equals(ROW);
+        // processed content of the parent and of the pairs being closed
+        final List<Content> result = new ArrayList<>(parent.getContentSize());
+        final Deque<List<Content>> openPairs = new ArrayDeque<>();
+        final Deque<Integer> openIndices = new ArrayDeque<>();
+        // content other than elements inside the outermost pair
+        final List<Content> outside = new ArrayList<>();
+        int index = -1; // index of the current element among children
+        for (Content content : parent.removeContent()) {
+            if (!(content instanceof Element)) {
+                (openPairs.isEmpty() ? result : outside).add(content);
+                continue;
+            }
+            index++;
+            final List<Content> current = openPairs.isEmpty() ? result : openPairs.peek();
+            if (matching[index] >= 0) {
+                openPairs.push(new ArrayList<Content>());
+                openIndices.push(index);
+                openPairs.peek().add(content);
+                continue;
+            }
+            if (openIndices.isEmpty() || matching[openIndices.peek()] != index) {
+                current.add(content);
+                continue;
+            }
+            // closing the innermost pair
+            final List<Content> fenced = openPairs.pop();
+            final int openingIndex = openIndices.pop();
+            final Element openingElement = (Element) fenced.remove(0);
+            final int fencedCount = index - openingIndex - 1;
+            final int enclosingIndex = enclosing[openingIndex];
+            final boolean bounded;
+            if (enclosingIndex < 0 || matching[enclosingIndex] < 0) {
+                // not inside another pair
+                bounded = parentIsRow && openingIndex == 0 && index == childCount - 1;
             } else {
-                parent.addContent(openingIndex + 1, innerElement);
+                // bounded by an inner mrow of the enclosing pair
+                bounded = wrapInside && matching[enclosingIndex] - enclosingIndex - 1 > 1
+                        && openingIndex == enclosingIndex + 1 && index == matching[enclosingIndex] - 1;
+            }
+            final List<Content> wrapped = wrapFenced(fenced, fencedCount, openingElement, (Element) content,
+                    wrapInside, wrapOutside && !bounded);
+            if (openPairs.isEmpty()) {
+                result.addAll(wrapped);
+                if (wrapped.get(wrapped.size() - 1) == content) {
+                    // closing parenthesis kept after the other content
+                    result.addAll(result.size() - 1, outside);
+                } else {
+                    result.addAll(outside);
+                }
+                outside.clear();
+            } else {
+                openPairs.peek().addAll(wrapped);
             }
-            return;
-        }
-        // wrap outside in mrow
-        opening.detach();
-        closing.detach();
-        final Element outerMrowElement = new Element(ROW, MATHMLNS);
-        outerMrowElement.addContent(opening);
-        if (innerElement != null) {
-            outerMrowElement.addContent(innerElement);
-        } else {
-            outerMrowElement.addContent(fenced);
         }
-        outerMrowElement.addContent(closing);
-        parent.addContent(openingIndex, outerMrowElement);
-        LOGGER.fine("Outer mrow added");
+        // unmatched opening parentheses cannot remain open
+        assert openPairs.isEmpty() && outside.isEmpty();
+        parent.addContent(result);
     }
 
     /**
-     * Add mrow if necessary
+     * Wrap fenced expression in mrow to be same as output of MfencedReplacer
+     *
+     * @param fenced processed elements inside parentheses
+     * @param fencedCount number of elements inside parentheses before their
+     * processing
+     * @param opening opening parenthesis
+     * @param closing closing parenthesis
+     * @param wrapInside whether to wrap the inside in mrow
+     * @param wrapOutside whether to wrap the whole expression in mrow
+     * @return the expression replacing the parentheses and elements inside
      */
-    private void checkAddition(final Element element) {
-        assert element != null;
-        final Parent parent = element.getParent();
-        if (!(parent instanceof Element)) {
-            return;
+    private List<Content> wrapFenced(final List<Content> fenced, final int fencedCount,
+            final Element opening, final Element closing, final boolean wrapInside, final boolean wrapOutside) {
+        assert fenced != null && opening != null && closing != null;
+        // Content to be placed inside parentheses.
+        final List<Content> inside;
+        if (fencedCount > 1 && wrapInside) {
+            final Element innerElement = new Element(ROW, MATHMLNS);
+            innerElement.addContent(fenced);
+            inside = Collections.<Content>singletonList(innerElement);
+            count(ROWS_ADDED, 1);
+            LOGGER.fine("Inner mrow added");
+        } else {
+            inside = fenced; // empty, just one element or not wrapping inside
         }
-        final Element parentElement = (Element) parent;
-        final List<Element> siblings = parentElement.getChildren();
 
-        if (isParenthesis(element, OPENING)) {
-            // Need to find matching closing par and register the elements between
-            int nesting = 0;
-
-            // list of elements inside parentheses
-            final List<Element> fenced = new ArrayList<>();
-
-            for (int i = siblings.indexOf(element) + 1; i < siblings.size(); i++) {
-                final Element current = siblings.get(i);
-
-                if (isParenthesis(current, OPENING)) {
-                    nesting++; // opening parenthase reached
-                } else if (isParenthesis(current, CLOSING)) { // closing parenthase reached
-                    if (nesting == 0) {
-                        // matching closing parenthase
-                        wrapFenced(siblings, fenced, element, current);
-                        break;
-                    } else {
-                        nesting--;
-                    }
-                }
-                fenced.add(current);
-            }
+        if (!wrapOutside) {
+            final List<Content> result = new ArrayList<>(inside.size() + 2);
+            result.add(opening);
+            result.addAll(inside);
+            result.add(closing);
+            return result;
         }
+        final Element outerMrowElement = new Element(ROW, MATHMLNS);
+        outerMrowElement.addContent(opening);
+        outerMrowElement.addContent(inside);
+        outerMrowElement.addContent(closing);
+        count(ROWS_ADDED, 1);
+        LOGGER.fine("Outer mrow added");
+        return Collections.<Content>singletonList(outerMrowElement);
     }
 
 }
@@ -16,11 +16,15 @@
 package cz.muni.fi.mir.mathmlcanonicalization.modules;
 
 import static cz.muni.fi.mir.mathmlcanonicalization.modules.AbstractModule.MATHMLNS;
+import cz.muni.fi.mir.mathmlcanonicalization.utils.CodePointSet;
+import cz.muni.fi.mir.mathmlcanonicalization.utils.NormalizationCache;
 import java.text.Normalizer;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Deque;
 import java.util.HashMap;
-import java.util.List;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 import java.util.logging.Level;
@@ -28,9 +32,8 @@ import java.util.logging.Logger;
 import org.jdom2.Content;
 import org.jdom2.Document;
 import org.jdom2.Element;
+import org.jdom2.Namespace;
 import org.jdom2.Text;
-import org.jdom2.filter.ContentFilter;
-import org.jdom2.filter.ElementFilter;
 
 /**
  * Normalize the way to express an function applied to arguments in MathML.
@@ -47,6 +50,18 @@ import org.jdom2.filter.ElementFilter;
  */
 public class OperatorNormalizer extends AbstractModule implements DOMModule {
 
+    /**
+     * Counter of removed operators.
+     */
+    public static final String OPERATORS_REMOVED = "operatorsRemoved";
+    /**
+     * Counter of operators replaced by other operators.
+     */
+    public static final String OPERATORS_REPLACED = "operatorsReplaced";
+    /**
+     * Counter of identifiers changed to operators and vice versa.
+     */
+    public static final String ELEMENTS_CONVERTED = "elementsConverted";
     private static final Logger LOGGER = Logger.getLogger(OperatorNormalizer.class.getName());
     // properties key names
     private static final String REMOVE_EMPTY_OPERATORS = "removeempty";
@@ -55,7 +70,10 @@ public class OperatorNormalizer extends AbstractModule implements DOMModule {
     private static final String COLON_REPLACEMENT = "colonreplacement";
     private static final String NORMALIZATION_FORM = "normalizationform";
     private static final String OPERATORS = "operators";
+    private static final String OPERATOR_RANGES = "operatorranges";
     private static final String IDENTIFIERS = "identifiers";
+    // compiled lazily from the properties, reset when they change
+    private volatile Operators compiledOperators;
 
     public OperatorNormalizer() {
         declareProperty(REMOVE_EMPTY_OPERATORS);
@@ -64,6 +82,7 @@ public class OperatorNormalizer extends AbstractModule implements DOMModule {
         declareProperty(COLON_REPLACEMENT);
         declareProperty(NORMALIZATION_FORM);
         declareProperty(OPERATORS);
+        declareProperty(OPERATOR_RANGES);
         declareProperty(IDENTIFIERS);
     }
 
@@ -76,70 +95,190 @@ public class OperatorNormalizer extends AbstractModule implements DOMModule {
 
         // TODO: convert Unicode superscripts (supX entities) to msup etc.
         final String normalizerFormStr = getProperty(NORMALIZATION_FORM);
+        Normalizer.Form normalizerForm = null;
         if (normalizerFormStr.isEmpty()) {
             LOGGER.fine("Unicode text normalization is switched off");
         } else {
             try {
-                Normalizer.Form normalizerForm = Normalizer.Form.valueOf(normalizerFormStr);
-                normalizeUnicode(root, normalizerForm);
+                normalizerForm = Normalizer.Form.valueOf(normalizerFormStr);
             } catch (IllegalArgumentException ex) {
                 throw new IllegalArgumentException("Invalid configuration value: "
                         + NORMALIZATION_FORM, ex);
             }
         }
-        unifyOperators(root);
+        final TokenVisitor visitor = new TokenVisitor(getOperators(), normalizerForm);
+        walkPreOrder(root, visitor);
+        count(ELEMENTS_CONVERTED, visitor.converted);
+        count(OPERATORS_REPLACED, visitor.replaced);
+        count(OPERATORS_REMOVED, visitor.removed);
+    }
+
+    @Override
+    protected void configurationChanged() {
+        compiledOperators = null;
+    }
+
+    private Operators getOperators() {
+        Operators result = compiledOperators;
+        if (result == null) {
+            result = new Operators();
+            compiledOperators = result;
+        }
+        return result;
     }
 
     /**
-     * Converts bad identifiers to operators, removes redundant and replaces
+     * Operator sets and mappings compiled from the properties
      */
-    private void unifyOperators(final Element ancestor) {
-        assert ancestor != null;
-        final Set<String> toRemove = getPropertySet(OPERATORS_TO_REMOVE);
-        final Map<String, String> replaceMap = getPropertyMap(OPERATOR_REPLACEMENTS);
-        if (!getProperty(COLON_REPLACEMENT).isEmpty()) {
-            replaceMap.put(":", getProperty(COLON_REPLACEMENT));
-        }
-        final Set<String> operators = getPropertySet(OPERATORS);
-        operators.addAll(toRemove);
-        operators.addAll(replaceMap.keySet());
-        operators.addAll(replaceMap.values());
+    private final class Operators {
 
-        replaceIdentifiers(ancestor, operators);
+        private final boolean removeEmpty = isEnabled(REMOVE_EMPTY_OPERATORS);
+        private final Set<String> toRemove = getPropertySet(OPERATORS_TO_REMOVE);
+        private final Map<String, String> replaceMap = getPropertyMap(OPERATOR_REPLACEMENTS);
+        // identifiers which should be operators
+        private final Set<String> operators = new HashSet<>(getPropertySet(OPERATORS));
+        // single code point identifiers which should be operators
+        private final CodePointSet operatorCodePoints = new CodePointSet();
+        private final Set<String> identifiers = getPropertySet(IDENTIFIERS);
 
-        if (isEnabled(REMOVE_EMPTY_OPERATORS) || !toRemove.isEmpty()) {
-            removeSpareOperators(ancestor, toRemove);
-        } else {
-            LOGGER.fine("No operators set for removal");
+        Operators() {
+            if (!getProperty(COLON_REPLACEMENT).isEmpty()) {
+                replaceMap.put(":", getProperty(COLON_REPLACEMENT));
+            }
+            operators.addAll(toRemove);
+            operators.addAll(replaceMap.keySet());
+            operators.addAll(replaceMap.values());
+            try {
+                operatorCodePoints.addRanges(getProperty(OPERATOR_RANGES));
+            } catch (IllegalArgumentException ex) {
+                throw new IllegalArgumentException("Invalid configuration value: "
+                        + OPERATOR_RANGES, ex);
+            }
+            for (String operator : operators) {
+                final int codePoint = CodePointSet.getSingleCodePoint(operator);
+                if (codePoint >= 0) {
+                    operatorCodePoints.add(codePoint);
+                }
+            }
         }
 
-        if (replaceMap.isEmpty()) {
-            LOGGER.fine("No operators set to replace");
-        } else {
-            replaceOperators(ancestor, replaceMap);
+        /**
+         * Tests whether the text of an identifier makes it an operator, single
+         * code points are looked up without hashing the text.
+         */
+        boolean shouldBeOperator(final String text) {
+            final int codePoint = CodePointSet.getSingleCodePoint(text);
+            return codePoint >= 0 ? operatorCodePoints.contains(codePoint) : operators.contains(text);
         }
 
-        final Set<String> identifiers = getPropertySet(IDENTIFIERS);
-        operatorsToIdentifiers(ancestor, identifiers);
     }
 
-    private void normalizeUnicode(final Element ancestor, final Normalizer.Form form) {
-        assert ancestor != null && form != null;
-        final List<Text> texts = new ArrayList<>();
-        final ContentFilter textFilter = new ContentFilter(ContentFilter.TEXT);
-        for (Content text : ancestor.getContent(textFilter)) {
-            texts.add((Text) text);
+    /**
+     * Normalizes the document in a single walk.
+     *
+     * Each element is classified once after its text is normalized. Bad
+     * identifiers are converted to operators, then redundant operators are
+     * removed, the remaining ones replaced and those which should be
+     * identifiers converted. The result is the same as if each of these steps
+     * was done on the whole document one after another, since every step
+     * depends only on the element itself and its ancestors.
+     */
+    private final class TokenVisitor implements PreOrderVisitor {
+
+        private final Operators compiled;
+        private final Normalizer.Form form;
+        private final boolean removing;
+        // the path to the visited element, for each element whether it or
+        // some of its ancestors (except the root) is an operator
+        private final Deque<Element> path = new ArrayDeque<>();
+        private final Deque<Boolean> insideOperator = new ArrayDeque<>();
+        private int converted = 0;
+        private int replaced = 0;
+        private int removed = 0;
+
+        TokenVisitor(final Operators compiled, final Normalizer.Form form) {
+            this.compiled = compiled;
+            this.form = form;
+            removing = compiled.removeEmpty || !compiled.toRemove.isEmpty();
+            if (!removing) {
+                LOGGER.fine("No operators set for removal");
+            }
+            if (compiled.replaceMap.isEmpty()) {
+                LOGGER.fine("No operators set to replace");
+            }
         }
-        for (Element element : ancestor.getDescendants(new ElementFilter())) {
-            for (Content text : element.getContent(textFilter)) {
-                texts.add((Text) text);
+
+        @Override
+        public boolean visit(final Element element) {
+            if (form != null) {
+                normalizeUnicode(element, form);
+            }
+            final Element parent = element.getParentElement();
+            if (parent == null) {
+                path.push(element);
+                insideOperator.push(false);
+                return true;
             }
+            while (path.peek() != parent) {
+                path.pop();
+                insideOperator.pop();
+            }
+            String text = element.getTextTrim();
+
+            if (isMathML(element, IDENTIFIER) && compiled.shouldBeOperator(text)) {
+                LOGGER.log(Level.FINE, "Creating an operator from {0}", element.getText());
+                renameElement(element, OPERATOR);
+                converted++;
+            }
+
+            final boolean operator = isOperator(element);
+            if (operator && removing && !insideOperator.peek()) {
+                //Keep special case where asterisk is by itself in a script
+                final String parentName = parent.getName();
+                if (isSpareOperator(element, compiled.toRemove, compiled.removeEmpty) && !parentName.equals("msub")
+                        && !parentName.equals("msubsup") && !parentName.equals("msup")) {
+                    element.detach();
+                    removed++;
+                    LOGGER.log(Level.FINE, "Operator {0} removed", element);
+                    return false;
+                }
+            }
+
+            if (isMathML(element, OPERATOR)) {
+                final String newOperator = compiled.replaceMap.get(text);
+                if (newOperator != null) {
+                    element.setText(newOperator);
+                    replaced++;
+                    LOGGER.log(Level.FINE, "Operator ''{0}'' was replaced by ''{1}''",
+                            new Object[]{text, newOperator});
+                    text = element.getTextTrim();
+                }
+                if (compiled.identifiers.contains(text)) {
+                    LOGGER.log(Level.FINE, "Creating an identifier from {0}", element.getText());
+                    renameElement(element, IDENTIFIER);
+                    converted++;
+                }
+            }
+
+            path.push(element);
+            insideOperator.push(operator || insideOperator.peek());
+            return true;
         }
-        for (Text text : texts) {
-            if (Normalizer.isNormalized(text.getText(), form)) {
+
+    }
+
+    private static void normalizeUnicode(final Element element, final Normalizer.Form form) {
+        assert element != null && form != null;
+        for (Content content : element.getContent()) {
+            if (content.getCType() != Content.CType.Text) {
+                continue;
+            }
+            final Text text = (Text) content;
+            // token texts repeat, so their normalized forms are cached
+            final String normalizedString = NormalizationCache.getShared().normalize(text.getText(), form);
+            if (normalizedString.equals(text.getText())) {
                 continue;
             }
-            final String normalizedString = Normalizer.normalize(text.getText(), form);
             LOGGER.log(Level.FINE, "Text ''{0}'' normalized to ''{1}''",
                     new Object[]{text.getText(), normalizedString});
             text.setText(normalizedString);
@@ -147,76 +286,28 @@ public class OperatorNormalizer extends AbstractModule implements DOMModule {
         }
     }
 
-    private void removeSpareOperators(final Element element, final Collection<String> spareOperators) {
-        assert element != null && spareOperators != null && !spareOperators.isEmpty();
-        final List<Element> children = element.getChildren();
-        for (int i = 0; i < children.size(); i++) {
-            final Element actual = children.get(i); // actual element
-            if (isOperator(actual)) {
-                //Keep special case where asterisk is by itself in a subscript
-                String parent = actual.getParentElement().getName();
-                if (isSpareOperator(actual, spareOperators) && !(parent.equals("msub"))
-                        && !(parent.equals("msubsup") && !(parent.equals("msup")))) {
-                    actual.detach();
-                    i--; // move iterator back after detaching so it points to next element
-                    LOGGER.log(Level.FINE, "Operator {0} removed", actual);
-                }
-            } else {
-                removeSpareOperators(actual, spareOperators);
-            }
-        }
-    }
-
-    private boolean isSpareOperator(final Element operator, final Collection<String> spareOperators) {
+    private boolean isSpareOperator(final Element operator, final Collection<String> spareOperators,
+            final boolean removeEmpty) {
         assert operator != null && spareOperators != null && isOperator(operator);
-        return (isEnabled(REMOVE_EMPTY_OPERATORS) && operator.getText().isEmpty())
+        return (removeEmpty && operator.getText().isEmpty())
                 || (spareOperators.contains(operator.getTextTrim()));
     }
 
-    private void replaceOperators(final Element element, final Map<String, String> replacements) {
-        assert element != null && replacements != null;
-        List<Element> operatorsToReplace = new ArrayList<>();
-        for (Element operator : element.getDescendants(new ElementFilter(OPERATOR, MATHMLNS))) {
-            if (replacements.containsKey(operator.getTextTrim())) {
-                operatorsToReplace.add(operator);
-            }
-        }
-        for (Element operator : operatorsToReplace) {
-            final String oldOperator = operator.getTextTrim();
-            final String newOperator = replacements.get(oldOperator);
-            operator.setText(newOperator);
-            LOGGER.log(Level.FINE, "Operator ''{0}'' was replaced by ''{1}''",
-                    new Object[]{oldOperator, newOperator});
-        }
+    private static boolean isMathML(final Element element, final String name) {
+        return element.getName().equals(name) && element.getNamespace().equals(MATHMLNS);
     }
 
-    private void replaceIdentifiers(final Element ancestor, final Set<String> operators) {
-        assert ancestor != null && operators != null;
-        final List<Element> toReplace = new ArrayList<>();
-        for (Element element : ancestor.getDescendants(new ElementFilter(IDENTIFIER, MATHMLNS))) {
-            // TODO: control whole ranges of symbols rather than listed ones
-            if (operators.contains(element.getTextTrim())) {
-                toReplace.add(element);
-            }
-        }
-        for (Element element : toReplace) {
-            LOGGER.log(Level.FINE, "Creating an operator from {0}", element.getText());
-            replaceElement(element, OPERATOR);
-        }
-    }
-
-    private void operatorsToIdentifiers(final Element ancestor, final Set<String> identifiers) {
-        assert ancestor != null && identifiers != null;
-        final List<Element> toReplace = new ArrayList<>();
-        for (Element element : ancestor.getDescendants(new ElementFilter(OPERATOR, MATHMLNS))) {
-            if (identifiers.contains(element.getTextTrim())) {
-                toReplace.add(element);
-            }
-        }
-        for (Element element : toReplace) {
-            LOGGER.log(Level.FINE, "Creating an identifier from {0}", element.getText());
-            replaceElement(element, IDENTIFIER);
+    /**
+     * Changes the name of the element in place, the result is the same as of
+     * {@link #replaceElement(Element, String)} without creating a new element
+     * and moving the content.
+     */
+    private static void renameElement(final Element element, final String name) {
+        assert element != null && name != null && !name.isEmpty();
+        for (Namespace namespace : new ArrayList<>(element.getAdditionalNamespaces())) {
+            element.removeNamespaceDeclaration(namespace);
         }
+        element.setName(name);
     }
 
     private Map<String, String> getPropertyMap(final String property) {
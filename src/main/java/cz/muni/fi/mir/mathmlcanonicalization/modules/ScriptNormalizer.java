@@ -83,13 +83,27 @@ public class ScriptNormalizer extends AbstractModule implements DOMModule {
         }
         // TODO: convert multiscript where possible
         if (isEnabled(SWAP_SCRIPTS)) {
-            normalizeSupInSub(root);
+            walkPostOrder(root, new PostOrderVisitor() {
+                @Override
+                public void visit(final Element element) {
+                    normalizeSupInSub(element);
+                }
+            });
         }
-        Collection<String> chosenElements = getPropertySet(SPLIT_SCRIPTS_ELEMENTS);
+        final Collection<String> chosenElements = getPropertySet(SPLIT_SCRIPTS_ELEMENTS);
         if (chosenElements.isEmpty()) {
             LOGGER.finer("Msubsup conversion is switched off");
         } else {
-            normalizeMsubsup(root, chosenElements);
+            walkPreOrder(root, new PreOrderVisitor() {
+                @Override
+                public boolean visit(final Element element) {
+                    if (element.getName().equals(SUBSUP) && element.getParentElement() != null) {
+                        return false; // not converted by its parent, left as it is
+                    }
+                    normalizeMsubsup(element, chosenElements);
+                    return true;
+                }
+            });
         }
         // TODO: convert sub/sup combination with not chosen elements to subsup
     }
@@ -99,7 +113,6 @@ public class ScriptNormalizer extends AbstractModule implements DOMModule {
         final List<Element> children = element.getChildren();
         for (int i = 0; i < children.size(); i++) {
             final Element actual = children.get(i);
-            normalizeSupInSub(actual);
             if (!actual.getName().equals(SUBSCRIPT)) {
                 continue;
             }
@@ -148,10 +161,7 @@ public class ScriptNormalizer extends AbstractModule implements DOMModule {
                 newMsup.addContent(newMsub);
                 newMsup.addContent(actualChildren.get(0).detach());
                 children.set(i, newMsup);
-                i--; // move back to check the children of the new transformation
                 LOGGER.finer("Msubsup converted to nested msub and msup");
-            } else {
-                normalizeMsubsup(actual, firstChildren);
             }
         }
     }
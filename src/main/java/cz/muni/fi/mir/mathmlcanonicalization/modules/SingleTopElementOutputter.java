@@ -15,8 +15,6 @@
  */
 package cz.muni.fi.mir.mathmlcanonicalization.modules;
 
-import java.util.ArrayList;
-import java.util.List;
 import java.util.logging.Logger;
 import org.jdom2.Document;
 import org.jdom2.Element;
@@ -33,7 +31,7 @@ import org.jdom2.Element;
  *
  * @author Michal Růžička
  */
-public class SingleTopElementOutputter extends AbstractModule implements DOMModule {
+public class SingleTopElementOutputter extends AbstractModule implements ElementVisitorModule {
 
     private static final Logger LOGGER = Logger.getLogger(SingleTopElementOutputter.class.getName());
 
@@ -42,29 +40,50 @@ public class SingleTopElementOutputter extends AbstractModule implements DOMModu
         if (doc == null) {
             throw new NullPointerException("doc");
         }
-        traverseDocument(doc.getRootElement());
+        walkPreOrder(doc.getRootElement(), new PreOrderVisitor() {
+            @Override
+            public boolean visit(final Element element) {
+                if (element.getName().equals(MATH)) {
+                    wrapChildren(element);
+                    return false; // <math> cannot contain nested <math> elements so no need to traverse
+                }
+                return true;
+            }
+        });
     }
 
-    private void traverseDocument(final Element element) {
-        assert element != null;
-        final List<Element> children = new ArrayList<Element>(element.getChildren());
+    @Override
+    public void visit(final Element element) {
+        if (element == null) {
+            throw new NullPointerException("element");
+        }
+        if (element.getName().equals(MATH) && !hasMathAncestor(element)) {
+            wrapChildren(element);
+        }
+    }
 
-        if (element.getName().equals(MATH)) {
-            LOGGER.fine(MATH + " element found");
-            if (element.getChildren().size() > 1) {
-                LOGGER.fine(MATH + " element found have multiple children");
-                Element mrow = new Element(ROW);
-                mrow.setNamespace(element.getNamespace());
-                LOGGER.fine("Namespace of the new " + ROW + " element set to " + mrow.getNamespace());
-                mrow.setContent(element.cloneContent());
-                element.setContent(mrow);
-                LOGGER.fine(MATH + " children moved under new " + ROW + " element");
-            }
-        } else { // <math> cannot contain nested <math> elements so no need to traverse
-            for (Element child : children) {
-                traverseDocument(child);
+    private static boolean hasMathAncestor(final Element element) {
+        for (Element ancestor = element.getParentElement(); ancestor != null;
+                ancestor = ancestor.getParentElement()) {
+            if (ancestor.getName().equals(MATH)) {
+                return true;
             }
         }
+        return false;
+    }
+
+    private void wrapChildren(final Element element) {
+        assert element != null && element.getName().equals(MATH);
+        LOGGER.fine(MATH + " element found");
+        if (element.getChildren().size() > 1) {
+            LOGGER.fine(MATH + " element found have multiple children");
+            Element mrow = new Element(ROW);
+            mrow.setNamespace(element.getNamespace());
+            LOGGER.fine("Namespace of the new " + ROW + " element set to " + mrow.getNamespace());
+            mrow.setContent(element.removeContent());
+            element.setContent(mrow);
+            LOGGER.fine(MATH + " children moved under new " + ROW + " element");
+        }
     }
 
 }
@@ -0,0 +1,40 @@
+/**
+ * Copyright 2013 MIR@MU Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cz.muni.fi.mir.mathmlcanonicalization.modules;
+
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Stream modules able to work as a filter over {@link XMLStreamReader}.
+ *
+ * Filters of several modules can be chained over a single reader, so the
+ * input is parsed only once no matter how many modules are used.
+ */
+public interface StreamFilterModule extends StreamModule {
+
+    /**
+     * Wraps the reader so that it produces the events of the module output.
+     *
+     * The returned reader is positioned at the same event as the given one
+     * and reading it advances the given reader.
+     *
+     * @param reader reader of the input to be processed
+     * @return reader of the result in accordance with the module specification
+     * @throws ModuleException when cannot transform the input by this module
+     */
+    public XMLStreamReader filter(XMLStreamReader reader) throws ModuleException;
+
+}
@@ -15,15 +15,12 @@
  */
 package cz.muni.fi.mir.mathmlcanonicalization.modules;
 
+import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 import java.util.logging.Logger;
 import org.jdom2.Document;
 import org.jdom2.Element;
-import org.jdom2.Namespace;
-import org.jdom2.filter.Filters;
-import org.jdom2.xpath.XPathExpression;
-import org.jdom2.xpath.XPathFactory;
 
 /**
  * Removes unary operators, i.e. {@code //mo[count(preceding-sibling::*) = 0]}.
@@ -71,7 +68,7 @@ import org.jdom2.xpath.XPathFactory;
  *
  * @author Michal Růžička
  */
-public class UnaryOperatorRemover extends AbstractModule implements DOMModule {
+public class UnaryOperatorRemover extends AbstractModule implements ElementVisitorModule {
 
     private static final Logger LOGGER = Logger.getLogger(ScriptNormalizer.class.getName());
 
@@ -79,19 +76,6 @@ public class UnaryOperatorRemover extends AbstractModule implements DOMModule {
     private static final String PM_UNARY_OPERATORS_TO_REMOVE = "pmathremoveunaryoperators";
     private static final String CM_UNARY_OPERATORS_TO_REMOVE = "cmathremoveunaryoperators";
 
-    private static final XPathExpression<Element> xpPMUnaryOperators = XPathFactory.instance().compile(
-            "//mathml:mo[count(preceding-sibling::*) = 0]|//mo[count(preceding-sibling::*) = 0]",
-            Filters.element(), null,
-            Namespace.getNamespace("mathml", "http://www.w3.org/1998/Math/MathML"));
-    private static final XPathExpression<Element> xpPMSecondOperatorInDoubleOperators = XPathFactory.instance().compile(
-            "//mathml:mo[preceding-sibling::*[1][self::mathml:mo]]|//mo[preceding-sibling::*[1][self::mo]]",
-            Filters.element(), null,
-            Namespace.getNamespace("mathml", "http://www.w3.org/1998/Math/MathML"));
-    private static final XPathExpression<Element> xpCMApplyWithTwoChildrens = XPathFactory.instance().compile(
-            "//mathml:apply[count(child::*)=2]|//apply[count(child::*)=2]",
-            Filters.element(), null,
-            Namespace.getNamespace("mathml", "http://www.w3.org/1998/Math/MathML"));
-
     public UnaryOperatorRemover() {
         declareProperty(PM_UNARY_OPERATORS_TO_REMOVE);
         declareProperty(CM_UNARY_OPERATORS_TO_REMOVE);
@@ -104,66 +88,124 @@ public class UnaryOperatorRemover extends AbstractModule implements DOMModule {
             throw new NullPointerException("doc");
         }
 
-        final Element root = doc.getRootElement();
+        walkPostOrder(doc.getRootElement(), new PostOrderVisitor() {
+            @Override
+            public void visit(final Element element) {
+                UnaryOperatorRemover.this.visit(element);
+            }
+        });
 
-        removeUnaryOperator(root);
+        LOGGER.finer("RemoveUnaryOperator finished");
 
     }
 
-    private void removeUnaryOperator(final Element rootElem) {
+    /**
+     * Removes the unary operators among the children of the element and
+     * replaces its unary apply children by their operands.
+     *
+     * Presentation MathML operators are removed before the children are
+     * checked, as if the whole document was processed for Presentation
+     * MathML first. The children were already visited, so their operands
+     * are not unary apply elements any more.
+     */
+    @Override
+    public void visit(final Element element) {
 
-        assert rootElem != null;
+        if (element == null) {
+            throw new NullPointerException("element");
+        }
 
-        /* Presentation MathML */
         final Set<String> pmCharsToRemove = getPropertySet(PM_UNARY_OPERATORS_TO_REMOVE);
-
         if (!pmCharsToRemove.isEmpty()) {
+            removeUnaryOperators(element, pmCharsToRemove);
+        }
+        removeUnaryApply(element, getPropertySet(CM_UNARY_OPERATORS_TO_REMOVE));
+
+    }
 
-            // Unary operators
-            List<Element> pmElemsToRemove = xpPMUnaryOperators.evaluate(rootElem);
-            for (Element toRemove : pmElemsToRemove) {
-                if (pmCharsToRemove.contains(toRemove.getValue())) {
-                    LOGGER.finest("Removing element '" + toRemove.getQualifiedName() + "' with value '" + toRemove.getValue() + "'.");
-                    toRemove.detach();
+    /**
+     * Removes the leading operator and the second operators of the double
+     * operators among the children, i.e. the children matching
+     * {@code mo[count(preceding-sibling::*) = 0]} and
+     * {@code mo[preceding-sibling::*[1][self::mo]]} before the removal.
+     */
+    private void removeUnaryOperators(final Element parent, final Set<String> pmCharsToRemove) {
+
+        assert parent != null && pmCharsToRemove != null;
+
+        boolean leading = true;
+        Element previous = null;
+        for (Iterator<Element> iterator = parent.getChildren().iterator(); iterator.hasNext();) {
+            final Element element = iterator.next();
+            boolean removed = false;
+            if (leading && isPresentationOperator(element)) {
+                // Unary operators
+                if (pmCharsToRemove.contains(element.getValue())) {
+                    LOGGER.finest("Removing element '" + element.getQualifiedName() + "' with value '" + element.getValue() + "'.");
+                    iterator.remove();
+                    removed = true;
                 } else {
-                    LOGGER.finest("Skipping element '" + toRemove.getQualifiedName() + "' with value '" + toRemove.getValue() + "'.");
+                    LOGGER.finest("Skipping element '" + element.getQualifiedName() + "' with value '" + element.getValue() + "'.");
                 }
-            }
-
-            // Second of the double operators
-            pmElemsToRemove = xpPMSecondOperatorInDoubleOperators.evaluate(rootElem);
-            for (Element toRemove : pmElemsToRemove) {
-                if (pmCharsToRemove.contains(toRemove.getValue())) {
-                    LOGGER.finest("Removing the second element out of double elements '" + toRemove.getQualifiedName() + "' with value '" + toRemove.getValue() + "'.");
-                    toRemove.detach();
+            } else if (previous != null && isPresentationOperator(element) && isPresentationOperator(previous)
+                    && element.getNamespaceURI().equals(previous.getNamespaceURI())) {
+                // Second of the double operators
+                if (pmCharsToRemove.contains(element.getValue())) {
+                    LOGGER.finest("Removing the second element out of double elements '" + element.getQualifiedName() + "' with value '" + element.getValue() + "'.");
+                    iterator.remove();
                 } else {
-                    LOGGER.finest("Skipping the second element out of double elements '" + toRemove.getQualifiedName() + "' with value '" + toRemove.getValue() + "'.");
+                    LOGGER.finest("Skipping the second element out of double elements '" + element.getQualifiedName() + "' with value '" + element.getValue() + "'.");
                 }
             }
-
+            // the removed leading operator does not precede the next element
+            if (!removed) {
+                previous = element;
+            }
+            leading = false;
         }
 
-        LOGGER.finer("RemoveUnaryOperator Presentation MathML finished");
+    }
 
-        /* Content MathML */
-        List<Element> applyWithTwoChildrens = xpCMApplyWithTwoChildrens.evaluate(rootElem);
-        final Set<String> cmOperatorsToRemove = getPropertySet(CM_UNARY_OPERATORS_TO_REMOVE);
+    /**
+     * Replaces Content MathML apply children with two children by the second
+     * of them if the first one is an operator to remove.
+     */
+    private void removeUnaryApply(final Element parent, final Set<String> cmOperatorsToRemove) {
 
-        for (Element applyElem : applyWithTwoChildrens) {
-            Element operator = applyElem.getChildren().get(0);
+        assert parent != null && cmOperatorsToRemove != null;
+
+        final List<Element> children = parent.getChildren();
+        for (int i = 0; i < children.size(); i++) {
+            final Element applyElem = children.get(i);
+            if (!isMathMLElement(applyElem, "apply")) {
+                continue;
+            }
+            final List<Element> applyChildren = applyElem.getChildren();
+            if (applyChildren.size() != 2) {
+                continue;
+            }
+            final Element operator = applyChildren.get(0);
             if (cmOperatorsToRemove.contains(operator.getName())) {
-                Element operand = applyElem.getChildren().get(1);
+                final Element operand = applyChildren.get(1);
                 LOGGER.finest("Removing operator '" + operator.getQualifiedName() + "' for operand '" + operand.getQualifiedName() + "'.");
-                operand.detach();
-                Element parent = applyElem.getParentElement();
-                int applyElemIndex = parent.indexOf(applyElem);
-                parent.setContent(applyElemIndex, operand);
-                applyElem.detach();
+                children.set(i, operand.detach());
             }
         }
 
-        LOGGER.finer("RemoveUnaryOperator Content MathML finished");
+    }
+
+    private static boolean isPresentationOperator(final Element element) {
+        return isMathMLElement(element, OPERATOR);
+    }
 
+    /**
+     * Tests the name of the element in MathML or no namespace.
+     */
+    private static boolean isMathMLElement(final Element element, final String name) {
+        assert element != null && name != null;
+        final String namespace = element.getNamespaceURI();
+        return element.getName().equals(name)
+                && (namespace.equals(MATHMLNS.getURI()) || namespace.isEmpty());
     }
 
 }
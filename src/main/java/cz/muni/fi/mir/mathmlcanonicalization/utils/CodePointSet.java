@@ -0,0 +1,170 @@
+/**
+ * Copyright 2013 MIR@MU Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cz.muni.fi.mir.mathmlcanonicalization.utils;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Set of Unicode code points given by ranges.
+ *
+ * Code points of the Basic Multilingual Plane are kept in a bit set, so they
+ * are looked up in constant time, the others in a sorted table of ranges.
+ * The set is filled when created and then only read, it is safe for
+ * concurrent reading when published safely.
+ */
+public final class CodePointSet {
+
+    private static final int BASIC_LIMIT = Character.MAX_VALUE + 1;
+
+    private final BitSet basic = new BitSet(BASIC_LIMIT);
+    // sorted disjoint ranges above the Basic Multilingual Plane
+    private int[] firsts = new int[0];
+    private int[] lasts = new int[0];
+
+    /**
+     * Adds the code point to the set.
+     *
+     * @param codePoint code point to add
+     * @return this set
+     */
+    public CodePointSet add(int codePoint) {
+        return add(codePoint, codePoint);
+    }
+
+    /**
+     * Adds the code points of the range to the set.
+     *
+     * @param first first code point of the range
+     * @param last last code point of the range, inclusive
+     * @return this set
+     */
+    public CodePointSet add(int first, int last) {
+        if (!Character.isValidCodePoint(first) || !Character.isValidCodePoint(last) || first > last) {
+            throw new IllegalArgumentException("Invalid code point range " + Integer.toHexString(first)
+                    + "-" + Integer.toHexString(last));
+        }
+        if (first < BASIC_LIMIT) {
+            basic.set(first, Math.min(last + 1, BASIC_LIMIT));
+        }
+        if (last >= BASIC_LIMIT) {
+            addSupplementary(Math.max(first, BASIC_LIMIT), last);
+        }
+        return this;
+    }
+
+    /**
+     * Adds the ranges written as space separated hexadecimal code points or
+     * ranges of them, e.g. {@code 2190-21FF 2A00-2AFF 29F5}. The code points
+     * may be prefixed by {@code U+}.
+     *
+     * @param ranges ranges to add, may be empty
+     * @return this set
+     * @throws IllegalArgumentException when the ranges are malformed
+     */
+    public CodePointSet addRanges(String ranges) {
+        if (ranges == null) {
+            throw new NullPointerException("ranges");
+        }
+        for (String range : ranges.trim().split("\\s+")) {
+            if (range.isEmpty()) {
+                continue;
+            }
+            final int dash = range.indexOf('-');
+            try {
+                if (dash < 0) {
+                    add(parseCodePoint(range));
+                } else {
+                    add(parseCodePoint(range.substring(0, dash)), parseCodePoint(range.substring(dash + 1)));
+                }
+            } catch (NumberFormatException ex) {
+                throw new IllegalArgumentException("Invalid code point range '" + range + "'", ex);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Tests whether the code point is in the set.
+     *
+     * @param codePoint code point to test
+     * @return true if the set contains the code point
+     */
+    public boolean contains(int codePoint) {
+        if (codePoint < 0) {
+            return false;
+        }
+        if (codePoint < BASIC_LIMIT) {
+            return basic.get(codePoint);
+        }
+        final int index = Arrays.binarySearch(firsts, codePoint);
+        if (index >= 0) {
+            return true;
+        }
+        final int range = -index - 2; // the last range starting before
+        return range >= 0 && codePoint <= lasts[range];
+    }
+
+    /**
+     * Gets the code point of a text consisting of a single one.
+     *
+     * @param text text to examine
+     * @return the code point or -1 if the text is empty or longer
+     */
+    public static int getSingleCodePoint(String text) {
+        if (text.length() == 1) {
+            return text.charAt(0);
+        }
+        if (text.length() == 2 && Character.isSurrogatePair(text.charAt(0), text.charAt(1))) {
+            return text.codePointAt(0);
+        }
+        return -1;
+    }
+
+    private void addSupplementary(int first, int last) {
+        // merge with the overlapping and adjacent ranges
+        final int[] newFirsts = new int[firsts.length + 1];
+        final int[] newLasts = new int[lasts.length + 1];
+        int count = 0;
+        int i = 0;
+        while (i < firsts.length && lasts[i] < first - 1) {
+            newFirsts[count] = firsts[i];
+            newLasts[count++] = lasts[i++];
+        }
+        while (i < firsts.length && firsts[i] <= last + 1) {
+            first = Math.min(first, firsts[i]);
+            last = Math.max(last, lasts[i++]);
+        }
+        newFirsts[count] = first;
+        newLasts[count++] = last;
+        while (i < firsts.length) {
+            newFirsts[count] = firsts[i];
+            newLasts[count++] = lasts[i++];
+        }
+        firsts = Arrays.copyOf(newFirsts, count);
+        lasts = Arrays.copyOf(newLasts, count);
+    }
+
+    private static int parseCodePoint(String codePoint) {
+        final String digits = codePoint.startsWith("U+") || codePoint.startsWith("u+")
+                ? codePoint.substring(2) : codePoint;
+        if (digits.isEmpty() || digits.charAt(0) == '+' || digits.charAt(0) == '-') {
+            throw new NumberFormatException(codePoint);
+        }
+        return Integer.parseInt(digits, 16);
+    }
+
+}
@@ -23,7 +23,9 @@ import java.nio.charset.StandardCharsets;
 import javax.xml.stream.XMLEventReader;
 import javax.xml.stream.XMLEventWriter;
 import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.StreamFilter;
 import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import javax.xml.stream.events.XMLEvent;
 
 import org.custommonkey.xmlunit.DoctypeInputStream;
@@ -37,6 +39,9 @@ import cz.muni.fi.mir.mathmlcanonicalization.Settings;
  */
 public class DTDManipulator {
 
+    private static final byte[] COMMENT_START = "<!--".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] COMMENT_END = "-->".getBytes(StandardCharsets.US_ASCII);
+
     /**
      * Inject into a XML document XHTML 1.1 plus MathML 2.0 plus SVG 1.1 DTD
      * reference ({@code <!DOCTYPE math SYSTEM "xhtml-math11-f.dtd">}). Named
@@ -113,4 +118,94 @@ public class DTDManipulator {
         return noDtdOutputStream;
     }
 
+    /**
+     * Remove any DTD reference from a XML document being read.
+     *
+     * @param reader reader of a XML document
+     * @return reader of the XML document without DTD reference
+     * @throws javax.xml.stream.XMLStreamException an error with XML processing
+     * occurs
+     */
+    public static XMLStreamReader removeDTD(XMLStreamReader reader) throws XMLStreamException {
+
+        return Settings.defaultXmlInputFactory().createFilteredReader(reader, new StreamFilter() {
+            @Override
+            public boolean accept(XMLStreamReader reader) {
+                return reader.getEventType() != XMLStreamConstants.DTD;
+            }
+        });
+
+    }
+
+    /**
+     * Remove comments and redundant white space from a DTD. Quoted literals
+     * are kept intact, so the declarations stay the same in a smaller copy.
+     *
+     * @param dtd DTD in an ASCII compatible encoding
+     * @return the minified DTD in the same encoding
+     */
+    public static byte[] minifyDTD(byte[] dtd) {
+
+        final ByteArrayOutputStream result = new ByteArrayOutputStream(dtd.length / 2);
+        byte last = '>';
+        int index = 0;
+        while (index < dtd.length) {
+            final byte current = dtd[index];
+            if (current == '"' || current == '\'') {
+                // copy the whole literal
+                int end = index + 1;
+                while (end < dtd.length && dtd[end] != current) {
+                    end++;
+                }
+                end = Math.min(end + 1, dtd.length);
+                result.write(dtd, index, end - index);
+                last = dtd[end - 1];
+                index = end;
+            } else if (startsWith(dtd, index, COMMENT_START)) {
+                index = indexOf(dtd, index + COMMENT_START.length, COMMENT_END) + COMMENT_END.length;
+            } else if (isWhiteSpace(current)) {
+                while (index < dtd.length && isWhiteSpace(dtd[index])) {
+                    index++;
+                }
+                // keep one space where it separates tokens
+                if (last != '>' && index < dtd.length && dtd[index] != '<'
+                        && !startsWith(dtd, index, COMMENT_START)) {
+                    result.write(' ');
+                    last = ' ';
+                }
+            } else {
+                result.write(current);
+                last = current;
+                index++;
+            }
+        }
+        return result.toByteArray();
+
+    }
+
+    private static boolean isWhiteSpace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == '\r';
+    }
+
+    private static boolean startsWith(byte[] data, int offset, byte[] prefix) {
+        if (offset + prefix.length > data.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (data[offset + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int indexOf(byte[] data, int offset, byte[] pattern) {
+        for (int i = offset; i + pattern.length <= data.length; i++) {
+            if (startsWith(data, i, pattern)) {
+                return i;
+            }
+        }
+        return data.length;
+    }
+
 }
@@ -0,0 +1,264 @@
+/**
+ * Copyright 2013 MIR@MU Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cz.muni.fi.mir.mathmlcanonicalization.utils;
+
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import cz.muni.fi.mir.mathmlcanonicalization.ConfigError;
+import cz.muni.fi.mir.mathmlcanonicalization.Settings;
+
+/**
+ * Input stream replacing references to named entities of XHTML 1.1 plus MathML
+ * 2.0 plus SVG 1.1 DTD ({@code &alpha;} ...) by numeric character references,
+ * so that such a XML document can be parsed without the DTD.
+ *
+ * The entities are read from a table generated from the DTD. References in
+ * comments, CDATA sections and processing instructions, references to the XML
+ * predefined entities and to unknown entities are kept untouched. The document
+ * has to be in UTF-8 or other ASCII compatible encoding.
+ */
+public class NamedEntityInputStream extends FilterInputStream {
+
+    private static final String ENTITIES_PROPERTY = "namedEntities";
+    // longer than any name in the table
+    private static final int MAX_NAME_LENGTH = 64;
+    // markup starts after '<' with references not to be replaced and their ends
+    private static final byte[][] SECTION_STARTS = {ascii("!--"), ascii("![CDATA["), ascii("?")};
+    private static final byte[][] SECTION_ENDS = {ascii("-->"), ascii("]]>"), ascii("?>")};
+    private static final int ALL_SECTION_STARTS = (1 << SECTION_STARTS.length) - 1;
+
+    private final PushbackInputStream input;
+    private final byte[] name = new byte[MAX_NAME_LENGTH + 1];
+    // replacement of the last reference not read yet
+    private byte[] pending = null;
+    private int pendingIndex = 0;
+    // end of the current comment, CDATA section or instruction, null outside
+    private byte[] sectionEnd = null;
+    // last bytes read inside the section
+    private int sectionTail = 0;
+    // section starts still matching the bytes read after the last '<', a bit
+    // for each, and the number of these bytes; matched as the bytes come, so
+    // that no more input than needed is waited for
+    private int sectionStarts = 0;
+    private int sectionStartLength = 0;
+
+    /**
+     * Creates stream replacing named entity references of the given stream.
+     *
+     * @param in XML document as InputStream
+     */
+    public NamedEntityInputStream(InputStream in) {
+        super(new PushbackInputStream(new BufferedInputStream(in), MAX_NAME_LENGTH + 1));
+        input = (PushbackInputStream) this.in;
+    }
+
+    /**
+     * Gets the named entities which are replaced.
+     *
+     * @return unmodifiable map from entity names to their replacement text
+     */
+    public static Map<String, String> getEntities() {
+        return EntityTable.ENTITIES;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (pending != null) {
+            final int result = pending[pendingIndex++];
+            if (pendingIndex == pending.length) {
+                pending = null;
+            }
+            return result;
+        }
+        final int current = input.read();
+        if (current == -1) {
+            return -1;
+        }
+        if (sectionEnd != null) {
+            checkSectionEnd(current);
+        } else if (sectionStarts != 0 && checkSectionStart(current)) {
+            return current;
+        } else if (current == '<') {
+            sectionStarts = ALL_SECTION_STARTS;
+            sectionStartLength = 0;
+            sectionTail = 0;
+        } else if (current == '&') {
+            return readReference();
+        }
+        return current;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (offset < 0 || length < 0 || length > buffer.length - offset) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (length == 0) {
+            return 0;
+        }
+        int count = 0;
+        do {
+            final int current = read();
+            if (current == -1) {
+                return count == 0 ? -1 : count;
+            }
+            buffer[offset + count++] = (byte) current;
+            // do not block when some bytes were already read
+        } while (count < length && (pending != null || input.available() > 0));
+        return count;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = 0;
+        while (skipped < n && read() != -1) {
+            skipped++;
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return (pending == null ? 0 : pending.length - pendingIndex) + input.available();
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public synchronized void mark(int readlimit) {
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        throw new IOException("mark/reset not supported");
+    }
+
+    /**
+     * Reads the entity name after '&amp;' and returns first byte of the
+     * reference or its replacement.
+     */
+    private int readReference() throws IOException {
+        int length = 0;
+        int current = input.read();
+        while (current != -1 && length < MAX_NAME_LENGTH && isNameCharacter(current)) {
+            name[length++] = (byte) current;
+            current = input.read();
+        }
+        if (current == ';') {
+            final byte[] replacement = EntityTable.REFERENCES.get(
+                    new String(name, 0, length, StandardCharsets.US_ASCII));
+            if (replacement != null) {
+                pending = replacement;
+                pendingIndex = 1;
+                return replacement[0];
+            }
+        }
+        // not a known reference, let the parser deal with it
+        if (current != -1) {
+            name[length++] = (byte) current;
+        }
+        input.unread(name, 0, length);
+        return '&';
+    }
+
+    /**
+     * Matches the byte read after '&lt;' against the section starts, returns
+     * whether it is a part of some of them.
+     */
+    private boolean checkSectionStart(int current) {
+        int matching = 0;
+        for (int i = 0; i < SECTION_STARTS.length; i++) {
+            if ((sectionStarts & (1 << i)) != 0 && SECTION_STARTS[i][sectionStartLength] == current) {
+                matching |= 1 << i;
+            }
+        }
+        sectionStarts = matching;
+        sectionStartLength++;
+        sectionTail = (sectionTail << 8) | current;
+        for (int i = 0; i < SECTION_STARTS.length; i++) {
+            if ((matching & (1 << i)) != 0 && SECTION_STARTS[i].length == sectionStartLength) {
+                // the tail keeps the start, so "<?>" is a whole instruction
+                sectionEnd = SECTION_ENDS[i];
+                sectionStarts = 0;
+                return true;
+            }
+        }
+        return matching != 0;
+    }
+
+    private void checkSectionEnd(int current) {
+        sectionTail = (sectionTail << 8) | current;
+        int tail = 0;
+        for (byte b : sectionEnd) {
+            tail = (tail << 8) | b;
+        }
+        final int mask = sectionEnd.length == 3 ? 0xFFFFFF : 0xFFFF;
+        if ((sectionTail & mask) == tail) {
+            sectionEnd = null;
+        }
+    }
+
+    private static boolean isNameCharacter(int b) {
+        return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || (b >= '0' && b <= '9')
+                || b == '.' || b == '-' || b == '_' || b == ':';
+    }
+
+    private static byte[] ascii(String string) {
+        return string.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    // entity table loaded on first use
+    private static class EntityTable {
+
+        private static final Map<String, String> ENTITIES;
+        private static final Map<String, byte[]> REFERENCES = new HashMap<>();
+
+        static {
+            final Properties table = new Properties();
+            try (InputStream in = Settings.getStreamFromProperty(ENTITIES_PROPERTY)) {
+                table.load(in);
+            } catch (IOException ex) {
+                throw new ConfigError("Named entities could not be read", ex);
+            }
+            final Map<String, String> entities = new HashMap<>();
+            for (String entity : table.stringPropertyNames()) {
+                final StringBuilder text = new StringBuilder();
+                final StringBuilder reference = new StringBuilder();
+                for (String codePoint : table.getProperty(entity).split(" ")) {
+                    text.appendCodePoint(Integer.parseInt(codePoint, 16));
+                    reference.append("&#x").append(codePoint).append(';');
+                }
+                entities.put(entity, text.toString());
+                REFERENCES.put(entity, ascii(reference.toString()));
+            }
+            ENTITIES = Collections.unmodifiableMap(entities);
+        }
+
+    }
+
+}
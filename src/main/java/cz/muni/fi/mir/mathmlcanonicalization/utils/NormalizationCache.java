@@ -0,0 +1,204 @@
+/**
+ * Copyright 2013 MIR@MU Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cz.muni.fi.mir.mathmlcanonicalization.utils;
+
+import java.text.Normalizer;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Unicode normalization of short texts remembering the results.
+ *
+ * MathML token texts come from a small vocabulary, so the normalized forms are
+ * looked up rather than computed again. Texts consisting of ASCII characters
+ * only are normalized in any form and are returned without any lookup. Long
+ * texts are normalized without caching. The number of cached texts is bounded,
+ * when exceeded the cache for the form is cleared and filled again by the
+ * texts in use. The cache is safe for concurrent use.
+ */
+public final class NormalizationCache {
+
+    /**
+     * Maximal number of cached texts of the shared cache.
+     */
+    public static final int DEFAULT_MAX_ENTRIES = 10000;
+    // longer texts are not cached
+    private static final int MAX_CACHED_LENGTH = 64;
+    private static final NormalizationCache SHARED = new NormalizationCache(DEFAULT_MAX_ENTRIES);
+
+    private final int maxEntries;
+    // maps never change after the construction
+    private final Map<Normalizer.Form, ConcurrentMap<String, String>> entries = new EnumMap<>(Normalizer.Form.class);
+    private final AtomicInteger entryCount = new AtomicInteger();
+    private final LongAdder asciiCount = new LongAdder();
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+
+    /**
+     * Creates empty cache
+     *
+     * @param maxEntries maximal number of cached texts
+     */
+    public NormalizationCache(int maxEntries) {
+        if (maxEntries < 0) {
+            throw new IllegalArgumentException("negative maxEntries");
+        }
+        this.maxEntries = maxEntries;
+        for (Normalizer.Form form : Normalizer.Form.values()) {
+            entries.put(form, new ConcurrentHashMap<String, String>());
+        }
+    }
+
+    /**
+     * Gets the cache shared by the modules.
+     *
+     * @return cache with {@link #DEFAULT_MAX_ENTRIES} limit
+     */
+    public static NormalizationCache getShared() {
+        return SHARED;
+    }
+
+    /**
+     * Normalizes the text.
+     *
+     * @param text text to be normalized
+     * @param form Unicode normalization form
+     * @return the normalized text, the same instance if already normalized
+     */
+    public String normalize(String text, Normalizer.Form form) {
+        if (text == null) {
+            throw new NullPointerException("text");
+        }
+        if (form == null) {
+            throw new NullPointerException("form");
+        }
+        if (isAscii(text)) {
+            asciiCount.increment();
+            return text;
+        }
+        if (text.length() > MAX_CACHED_LENGTH) {
+            missCount.increment();
+            return compute(text, form);
+        }
+        final ConcurrentMap<String, String> cache = entries.get(form);
+        final String cached = cache.get(text);
+        if (cached != null) {
+            hitCount.increment();
+            return cached;
+        }
+        missCount.increment();
+        final String normalized = compute(text, form);
+        if (cache.putIfAbsent(text, normalized) == null
+                && entryCount.incrementAndGet() > maxEntries) {
+            evict(cache);
+        }
+        return normalized;
+    }
+
+    /**
+     * Removes all the entries, counters are kept.
+     */
+    public void clear() {
+        for (ConcurrentMap<String, String> cache : entries.values()) {
+            entryCount.addAndGet(-cache.size());
+            cache.clear();
+        }
+    }
+
+    /**
+     * @return approximate number of cached texts
+     */
+    public int getEntryCount() {
+        return Math.max(entryCount.get(), 0);
+    }
+
+    /**
+     * @return maximal number of cached texts
+     */
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * @return number of ASCII texts returned without lookup
+     */
+    public long getAsciiCount() {
+        return asciiCount.sum();
+    }
+
+    /**
+     * @return number of lookups which found the normalized text
+     */
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    /**
+     * @return number of texts which had to be normalized
+     */
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    /**
+     * @return number of entries discarded to keep the limit
+     */
+    public long getEvictionCount() {
+        return evictionCount.sum();
+    }
+
+    /**
+     * @return ratio of texts normalized without {@link Normalizer}, 0 if none
+     * were normalized yet
+     */
+    public double getHitRate() {
+        final long saved = getAsciiCount() + getHitCount();
+        final long total = saved + getMissCount();
+        return total == 0 ? 0 : (double) saved / total;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("NormalizationCache{entries=%d, ascii=%d, hits=%d, misses=%d, evictions=%d, hitRate=%.3f}",
+                getEntryCount(), getAsciiCount(), getHitCount(), getMissCount(), getEvictionCount(), getHitRate());
+    }
+
+    private void evict(ConcurrentMap<String, String> cache) {
+        final int size = cache.size();
+        cache.clear();
+        entryCount.addAndGet(-size);
+        evictionCount.add(size);
+    }
+
+    private static String compute(String text, Normalizer.Form form) {
+        return Normalizer.isNormalized(text, form) ? text : Normalizer.normalize(text, form);
+    }
+
+    private static boolean isAscii(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) >= 0x80) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
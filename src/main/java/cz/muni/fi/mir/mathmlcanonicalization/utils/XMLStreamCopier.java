@@ -0,0 +1,117 @@
+/**
+ * Copyright 2013 MIR@MU Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cz.muni.fi.mir.mathmlcanonicalization.utils;
+
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+import cz.muni.fi.mir.mathmlcanonicalization.Settings;
+
+/**
+ * Utilities for serializing StAX event streams.
+ */
+public class XMLStreamCopier {
+
+    /**
+     * Serialize all the remaining events of a reader to an output stream in
+     * UTF-8.
+     *
+     * @param reader reader positioned at the start of a document
+     * @param out stream the document is written to
+     * @throws javax.xml.stream.XMLStreamException an error with XML processing
+     * occurs
+     */
+    public static void copy(XMLStreamReader reader, OutputStream out) throws XMLStreamException {
+
+        final XMLStreamWriter writer = Settings.xmlOutputFactory().createXMLStreamWriter(out, StandardCharsets.UTF_8.name());
+        copy(reader, writer);
+        writer.flush();
+        writer.close();
+
+    }
+
+    /**
+     * Write all the remaining events of a reader to a writer.
+     *
+     * @param reader reader positioned at the start of a document
+     * @param writer writer the events are written to
+     * @throws javax.xml.stream.XMLStreamException an error with XML processing
+     * occurs
+     */
+    public static void copy(XMLStreamReader reader, XMLStreamWriter writer) throws XMLStreamException {
+
+        writer.writeStartDocument(reader.getEncoding(), reader.getVersion());
+        while (reader.hasNext()) {
+            switch (reader.next()) {
+                case XMLStreamConstants.START_ELEMENT: {
+                    writer.writeStartElement(reader.getName().getPrefix(), reader.getLocalName(), reader.getName().getNamespaceURI());
+                    for (int index = 0; index < reader.getAttributeCount(); ++index) {
+                        final String attributeNamespace = reader.getAttributeNamespace(index);
+                        if (attributeNamespace == null) {
+                            writer.writeAttribute(reader.getAttributeLocalName(index), reader.getAttributeValue(index));
+                        } else {
+                            writer.writeAttribute(reader.getAttributePrefix(index), attributeNamespace,
+                                    reader.getAttributeLocalName(index), reader.getAttributeValue(index));
+                        }
+                    }
+                    for (int index = 0; index < reader.getNamespaceCount(); ++index) {
+                        writer.writeNamespace(reader.getNamespacePrefix(index), reader.getNamespaceURI(index));
+                    }
+                    break;
+                }
+                case XMLStreamConstants.END_ELEMENT: {
+                    writer.writeEndElement();
+                    break;
+                }
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.SPACE: {
+                    writer.writeCharacters(reader.getText());
+                    break;
+                }
+                case XMLStreamConstants.CDATA: {
+                    writer.writeCData(reader.getText());
+                    break;
+                }
+                case XMLStreamConstants.COMMENT: {
+                    writer.writeComment(reader.getText());
+                    break;
+                }
+                case XMLStreamConstants.PROCESSING_INSTRUCTION: {
+                    writer.writeProcessingInstruction(reader.getPITarget(), reader.getPIData());
+                    break;
+                }
+                case XMLStreamConstants.DTD: {
+                    writer.writeDTD(reader.getText());
+                    break;
+                }
+                case XMLStreamConstants.END_DOCUMENT: {
+                    writer.writeEndDocument();
+                    break;
+                }
+                default: {
+                    break;
+                }
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,161 @@
+/**
+ * Copyright 2013 MIR@MU Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cz.muni.fi.mir.mathmlcanonicalization;
+
+import java.io.InputStream;
+import java.util.List;
+
+import org.apache.commons.io.input.CountingInputStream;
+
+import cz.muni.fi.mir.mathmlcanonicalization.modules.Module;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Stage events recorded by JDK Flight Recorder.
+ *
+ * Document size is the number of input bytes read so far, so the parse and
+ * the following stages carry the size of the whole input.
+ */
+final class JfrStageEvents extends StageEvents {
+
+    private static final String PREFIX = "cz.muni.fi.mir.mathmlcanonicalization.";
+    private static final EventType DOCUMENT_TYPE = EventType.getEventType(DocumentEvent.class);
+    private static final EventType STAGE_TYPE = EventType.getEventType(StageEvent.class);
+
+    // recorded documents being canonicalized by the thread
+    private final ThreadLocal<DocumentEvent> documents = new ThreadLocal<>();
+
+    @Override
+    InputStream beginDocument(InputStream in) {
+        if (!DOCUMENT_TYPE.isEnabled() && !STAGE_TYPE.isEnabled()) {
+            return in;
+        }
+        final DocumentEvent event = new DocumentEvent();
+        event.input = new CountingInputStream(in);
+        event.begin();
+        documents.set(event);
+        return event.input;
+    }
+
+    @Override
+    void endDocument() {
+        final DocumentEvent event = documents.get();
+        if (event == null) {
+            return;
+        }
+        documents.remove();
+        event.end();
+        if (event.shouldCommit()) {
+            event.documentSize = event.input.getByteCount();
+            event.commit();
+        }
+    }
+
+    @Override
+    Object begin() {
+        if (!STAGE_TYPE.isEnabled()) {
+            return null;
+        }
+        final StageEvent event = new StageEvent();
+        event.begin();
+        return event;
+    }
+
+    @Override
+    void commit(Object event, String stage) {
+        commit(event, stage, null);
+    }
+
+    @Override
+    void commit(Object event, Module module) {
+        if (event != null) {
+            commit(event, MODULE, module.getClass().getSimpleName());
+        }
+    }
+
+    @Override
+    void commit(Object event, List<? extends Module> modules) {
+        if (event == null) {
+            return;
+        }
+        final StringBuilder names = new StringBuilder();
+        for (Module module : modules) {
+            if (names.length() > 0) {
+                names.append('+');
+            }
+            names.append(module.getClass().getSimpleName());
+        }
+        commit(event, MODULE, names.toString());
+    }
+
+    private void commit(Object event, String stage, String module) {
+        if (event == null) {
+            return;
+        }
+        final StageEvent stageEvent = (StageEvent) event;
+        stageEvent.end();
+        if (!stageEvent.shouldCommit()) {
+            return;
+        }
+        stageEvent.stage = stage;
+        stageEvent.module = module;
+        final DocumentEvent document = documents.get();
+        stageEvent.documentSize = document == null ? -1 : document.input.getByteCount();
+        stageEvent.commit();
+    }
+
+    @Name(PREFIX + "Document")
+    @Label("Canonicalized Document")
+    @Category("MathML Canonicalizer")
+    static class DocumentEvent extends Event {
+
+        @Label("Document Size")
+        @Description("Bytes of the input document")
+        @DataAmount
+        long documentSize;
+
+        // not recorded
+        transient CountingInputStream input;
+
+    }
+
+    @Name(PREFIX + "Stage")
+    @Label("Canonicalization Stage")
+    @Description("Parsing, module execution, DTD removal or serialization of a document")
+    @Category("MathML Canonicalizer")
+    static class StageEvent extends Event {
+
+        @Label("Stage")
+        String stage;
+
+        @Label("Module")
+        @Description("Simple class names of the executed modules")
+        String module;
+
+        @Label("Document Size")
+        @Description("Bytes of the input document read so far, -1 if the document is not recorded")
+        @DataAmount
+        long documentSize;
+
+    }
+
+}
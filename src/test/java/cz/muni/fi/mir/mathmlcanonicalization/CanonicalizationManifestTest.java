@@ -0,0 +1,100 @@
+/**
+ * Copyright 2013 MIR@MU Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cz.muni.fi.mir.mathmlcanonicalization;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Test cases for CanonicalizationManifest class.
+ */
+public class CanonicalizationManifestTest {
+
+    private static final String FINGERPRINT = "f1";
+
+    @TempDir
+    File directory;
+
+    @Test
+    public void shouldSkipUnchangedFiles() throws IOException {
+        final File manifestFile = new File(directory, "manifest.tsv");
+        final File file = write("a.xml", "<math/>");
+
+        CanonicalizationManifest manifest = new CanonicalizationManifest(manifestFile);
+        assertFalse(manifest.isUnchanged(file, FINGERPRINT));
+        manifest.update(file, FileUtils.readFileToByteArray(file), FINGERPRINT);
+        manifest.save();
+
+        manifest = new CanonicalizationManifest(manifestFile);
+        assertTrue(manifest.isUnchanged(file, FINGERPRINT));
+        assertFalse(manifest.isUnchanged(file, "f2"));
+        assertFalse(manifest.isUnchanged(write("b.xml", "<math/>"), FINGERPRINT));
+    }
+
+    @Test
+    public void shouldCompareContentOfTouchedFiles() throws IOException {
+        final File file = write("a.xml", "<math/>");
+        final CanonicalizationManifest manifest = new CanonicalizationManifest(new File(directory, "manifest.tsv"));
+        manifest.update(file, FileUtils.readFileToByteArray(file), FINGERPRINT);
+
+        assertTrue(file.setLastModified(file.lastModified() - 10000));
+        assertTrue(manifest.isUnchanged(file, FINGERPRINT));
+
+        FileUtils.writeStringToFile(file, "<math></math>", StandardCharsets.UTF_8);
+        assertFalse(manifest.isUnchanged(file, FINGERPRINT));
+        FileUtils.writeStringToFile(file, "<mbth/>", StandardCharsets.UTF_8);
+        assertTrue(file.setLastModified(file.lastModified() - 20000));
+        assertFalse(manifest.isUnchanged(file, FINGERPRINT));
+    }
+
+    @Test
+    public void shouldCompareContentOfFilesRewrittenWithinTimestampGranularity() throws IOException {
+        final File manifestFile = new File(directory, "manifest.tsv");
+        final File file = write("a.xml", "<math/>");
+        final long modified = file.lastModified();
+        CanonicalizationManifest manifest = new CanonicalizationManifest(manifestFile);
+        manifest.update(file, FileUtils.readFileToByteArray(file), FINGERPRINT);
+        manifest.save();
+
+        // rewritten with the same size within the same tick
+        FileUtils.writeStringToFile(file, "<mbth/>", StandardCharsets.UTF_8);
+        assertTrue(file.setLastModified(modified));
+        manifest = new CanonicalizationManifest(manifestFile);
+        assertFalse(manifest.isUnchanged(file, FINGERPRINT));
+
+        // the modification time is relied on once the content was verified later
+        assertTrue(file.setLastModified(modified - 2 * CanonicalizationManifest.MODIFICATION_TIME_GRANULARITY));
+        manifest.update(file, FileUtils.readFileToByteArray(file), FINGERPRINT);
+        manifest.save();
+        manifest = new CanonicalizationManifest(manifestFile);
+        assertTrue(manifest.isUnchanged(file, FINGERPRINT));
+    }
+
+    private File write(String name, String content) throws IOException {
+        final File file = new File(directory, name);
+        FileUtils.writeStringToFile(file, content, StandardCharsets.UTF_8);
+        return file;
+    }
+
+}
@@ -0,0 +1,161 @@
+/**
+ * Copyright 2013 MIR@MU Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cz.muni.fi.mir.mathmlcanonicalization;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.ByteArrayOutputStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import cz.muni.fi.mir.mathmlcanonicalization.modules.ModuleTestResources;
+
+/**
+ * Test cases for CanonicalizationServer class.
+ */
+public class CanonicalizationServerTest {
+
+    private final MathMLCanonicalizer canonicalizer = MathMLCanonicalizer.getDefaultCanonicalizer().compile();
+    private CanonicalizationServer server;
+    private Thread serving;
+
+    @BeforeEach
+    public void startServer() throws IOException {
+        server = new CanonicalizationServer(canonicalizer, 0);
+        serving = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    server.serve();
+                } catch (IOException ex) {
+                    throw new IllegalStateException(ex);
+                }
+            }
+        });
+        serving.start();
+    }
+
+    @AfterEach
+    public void stopServer() throws Exception {
+        server.close();
+        serving.join(10000);
+    }
+
+    @Test
+    public void shouldCanonicalizeRequests() throws Exception {
+        try (Socket socket = connect()) {
+            for (InputStream resource : ModuleTestResources.getAllTestResources()) {
+                final byte[] input = IOUtils.toByteArray(resource);
+                final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+                canonicalizer.canonicalize(new ByteArrayInputStream(input), expected);
+
+                final Response response = request(socket, input);
+                assertEquals(CanonicalizationServer.STATUS_OK, response.status);
+                assertEquals(expected.toString(StandardCharsets.UTF_8), new String(response.body, StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    @Test
+    public void shouldReportErrorAndContinue() throws Exception {
+        try (Socket socket = connect()) {
+            assertEquals(CanonicalizationServer.STATUS_ERROR,
+                    request(socket, "<math><mi>".getBytes(StandardCharsets.UTF_8)).status);
+            assertEquals(CanonicalizationServer.STATUS_OK,
+                    request(socket, "<math><mi>x</mi></math>".getBytes(StandardCharsets.UTF_8)).status);
+        }
+    }
+
+    @Test
+    public void shouldServeConcurrentConnections() throws Exception {
+        final byte[] input = "<math><mrow><mi>x</mi><mo>+</mo><mi>y</mi></mrow></math>".getBytes(StandardCharsets.UTF_8);
+        final String expected = new String(request(connect(), input).body, StandardCharsets.UTF_8);
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                results.add(executor.submit(() -> {
+                    try (Socket socket = connect()) {
+                        String result = null;
+                        for (int j = 0; j < 20; j++) {
+                            result = new String(request(socket, input).body, StandardCharsets.UTF_8);
+                        }
+                        return result;
+                    }
+                }));
+            }
+            for (Future<String> result : results) {
+                assertEquals(expected, result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void shouldStopWhenClosed() throws Exception {
+        final Socket socket = connect();
+        assertEquals(CanonicalizationServer.STATUS_OK,
+                request(socket, "<math><mi>x</mi></math>".getBytes(StandardCharsets.UTF_8)).status);
+        server.close();
+        serving.join(10000);
+        assertEquals(false, serving.isAlive());
+        // the idle connection was closed by the server
+        assertEquals(-1, socket.getInputStream().read());
+        socket.close();
+    }
+
+    private Socket connect() throws IOException {
+        return new Socket(InetAddress.getLoopbackAddress(), server.getPort());
+    }
+
+    private static Response request(Socket socket, byte[] input) throws IOException {
+        final DataOutputStream output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        output.writeInt(input.length);
+        output.write(input);
+        output.flush();
+        final DataInputStream reader = new DataInputStream(socket.getInputStream());
+        final Response response = new Response();
+        response.status = reader.readUnsignedByte();
+        response.body = new byte[reader.readInt()];
+        reader.readFully(response.body);
+        return response;
+    }
+
+    private static class Response {
+
+        int status;
+        byte[] body;
+    }
+
+}
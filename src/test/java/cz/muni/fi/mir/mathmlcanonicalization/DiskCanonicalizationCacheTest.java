@@ -0,0 +1,155 @@
+/**
+ * Copyright 2013 MIR@MU Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cz.muni.fi.mir.mathmlcanonicalization;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Test cases for DiskCanonicalizationCache class.
+ */
+public class DiskCanonicalizationCacheTest {
+
+    private static final String KEY_A = repeat('a');
+    private static final String KEY_B = repeat('b');
+
+    @TempDir
+    File directory;
+
+    @Test
+    public void shouldKeepOutputsAcrossRuns() throws IOException {
+        try (DiskCanonicalizationCache cache = new DiskCanonicalizationCache(directory)) {
+            assertNull(cache.get(KEY_A));
+            cache.put(KEY_A, new byte[]{1, 2, 3});
+            cache.put(KEY_B, new byte[0]);
+            assertArrayEquals(new byte[]{1, 2, 3}, cache.get(KEY_A));
+        }
+        try (DiskCanonicalizationCache cache = new DiskCanonicalizationCache(directory)) {
+            assertEquals(2, cache.getEntryCount());
+            assertArrayEquals(new byte[]{1, 2, 3}, cache.get(KEY_A));
+            assertArrayEquals(new byte[0], cache.get(KEY_B));
+            assertEquals(2, cache.getHitCount());
+        }
+    }
+
+    @Test
+    public void shouldDiscardIncompleteRecord() throws IOException {
+        try (DiskCanonicalizationCache cache = new DiskCanonicalizationCache(directory)) {
+            cache.put(KEY_A, new byte[]{1, 2, 3});
+            cache.put(KEY_B, new byte[]{4, 5, 6});
+        }
+        final File segment = directory.listFiles()[0];
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            file.setLength(file.length() - 1);
+        }
+        try (DiskCanonicalizationCache cache = new DiskCanonicalizationCache(directory)) {
+            assertNull(cache.get(KEY_B));
+            cache.put(KEY_B, new byte[]{7});
+        }
+        try (DiskCanonicalizationCache cache = new DiskCanonicalizationCache(directory)) {
+            assertArrayEquals(new byte[]{1, 2, 3}, cache.get(KEY_A));
+            assertArrayEquals(new byte[]{7}, cache.get(KEY_B));
+        }
+    }
+
+    @Test
+    public void shouldDiscardIncompleteHeader() throws IOException {
+        try (DiskCanonicalizationCache cache = new DiskCanonicalizationCache(directory)) {
+            cache.put(KEY_A, new byte[]{1, 2, 3});
+        }
+        final File segment = directory.listFiles()[0];
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            file.setLength(5);
+        }
+        try (DiskCanonicalizationCache cache = new DiskCanonicalizationCache(directory)) {
+            assertEquals(0, cache.getEntryCount());
+            cache.put(KEY_A, new byte[]{4});
+        }
+        try (DiskCanonicalizationCache cache = new DiskCanonicalizationCache(directory)) {
+            assertArrayEquals(new byte[]{4}, cache.get(KEY_A));
+        }
+
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            // as short as the incomplete header, but not its prefix
+            file.setLength(0);
+            file.writeBytes("MathX");
+        }
+        assertThrows(IOException.class, () -> new DiskCanonicalizationCache(directory));
+    }
+
+    @Test
+    public void shouldDiscardCorruptedRecords() throws IOException {
+        try (DiskCanonicalizationCache cache = new DiskCanonicalizationCache(directory)) {
+            cache.put(KEY_A, new byte[]{1, 2, 3});
+            cache.put(KEY_B, new byte[]{4, 5, 6});
+        }
+        final File segment = directory.listFiles()[0];
+        // the last byte of the first output, followed by the second record
+        final long position = segment.length() - 3 - 4 - 4 - 64 - 1;
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            file.seek(position);
+            file.write(9);
+        }
+        try (DiskCanonicalizationCache cache = new DiskCanonicalizationCache(directory)) {
+            assertEquals(0, cache.getEntryCount());
+            assertNull(cache.get(KEY_A));
+            assertNull(cache.get(KEY_B));
+            cache.put(KEY_B, new byte[]{7});
+        }
+        try (DiskCanonicalizationCache cache = new DiskCanonicalizationCache(directory)) {
+            assertEquals(1, cache.getEntryCount());
+            assertArrayEquals(new byte[]{7}, cache.get(KEY_B));
+        }
+    }
+
+    @Test
+    public void shouldNotReturnOutputCorruptedWhileOpen() throws IOException {
+        try (DiskCanonicalizationCache cache = new DiskCanonicalizationCache(directory)) {
+            cache.put(KEY_A, new byte[]{1, 2, 3});
+            try (RandomAccessFile file = new RandomAccessFile(directory.listFiles()[0], "rw")) {
+                file.seek(file.length() - 1);
+                file.write(9);
+            }
+            assertNull(cache.get(KEY_A));
+            assertEquals(0, cache.getEntryCount());
+        }
+    }
+
+    @Test
+    public void shouldRejectInvalidKey() throws IOException {
+        try (DiskCanonicalizationCache cache = new DiskCanonicalizationCache(directory)) {
+            assertThrows(IllegalArgumentException.class, () -> cache.put("key", new byte[0]));
+        }
+    }
+
+    private static String repeat(char c) {
+        final StringBuilder key = new StringBuilder();
+        for (int i = 0; i < 64; i++) {
+            key.append(c);
+        }
+        return key.toString();
+    }
+
+}
@@ -0,0 +1,88 @@
+/**
+ * Copyright 2013 MIR@MU Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cz.muni.fi.mir.mathmlcanonicalization;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Test cases for MathMLCanonicalizerCommandLineTool class.
+ */
+public class MathMLCanonicalizerCommandLineToolTest {
+
+    private final MathMLCanonicalizer canonicalizer = MathMLCanonicalizer.getDefaultCanonicalizer().compile();
+
+    @Test
+    public void shouldWriteOutputBeforeNextRecordIsSent() throws Exception {
+        final PipedOutputStream records = new PipedOutputStream();
+        final PipedInputStream recordsInput = new PipedInputStream(records);
+        final PipedOutputStream outputsOutput = new PipedOutputStream();
+        final DataInputStream outputs = new DataInputStream(new PipedInputStream(outputsOutput));
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final Future<?> canonicalizing = executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    MathMLCanonicalizerCommandLineTool.canonicalizeRecords(canonicalizer, recordsInput,
+                            outputsOutput, true, 4);
+                    outputsOutput.close();
+                    return null;
+                }
+            });
+            final DataOutputStream producer = new DataOutputStream(records);
+            for (int i = 0; i < 3; i++) {
+                final byte[] record = ("<math xmlns=\"http://www.w3.org/1998/Math/MathML\"><mrow><mi>x</mi>"
+                        + "<mo>+</mo><mn>" + i + "</mn></mrow></math>").getBytes(StandardCharsets.UTF_8);
+                producer.writeInt(record.length);
+                producer.write(record);
+                producer.flush();
+                // the next record is sent only when the output of this one came
+                final Future<byte[]> output = executor.submit(new Callable<byte[]>() {
+                    @Override
+                    public byte[] call() throws Exception {
+                        final byte[] result = new byte[outputs.readInt()];
+                        outputs.readFully(result);
+                        return result;
+                    }
+                });
+                final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+                canonicalizer.canonicalize(new ByteArrayInputStream(record), expected);
+                assertArrayEquals(expected.toByteArray(), output.get(10, TimeUnit.SECONDS));
+            }
+            producer.close();
+            canonicalizing.get(10, TimeUnit.SECONDS);
+            assertEquals(-1, outputs.read());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+}
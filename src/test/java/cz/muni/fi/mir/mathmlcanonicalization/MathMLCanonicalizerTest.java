@@ -17,22 +17,38 @@ package cz.muni.fi.mir.mathmlcanonicalization;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.io.output.ByteArrayOutputStream;
 import org.jdom2.JDOMException;
 import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
 
+import cz.muni.fi.mir.mathmlcanonicalization.modules.ElementVisitorModule;
+import cz.muni.fi.mir.mathmlcanonicalization.modules.MfencedReplacer;
+import cz.muni.fi.mir.mathmlcanonicalization.modules.Module;
 import cz.muni.fi.mir.mathmlcanonicalization.modules.ModuleException;
 import cz.muni.fi.mir.mathmlcanonicalization.modules.ModuleTestResources;
+import cz.muni.fi.mir.mathmlcanonicalization.modules.MrowNormalizer;
 
 /**
  * Test cases for MathMLCanonicalizer class.
@@ -79,6 +95,245 @@ public class MathMLCanonicalizerTest {
         }
     }
 
+    @Test
+    public void malformedInputShouldThrowModuleException() throws Exception {
+        final byte[] input = "<math><mi>x</mi>".getBytes(StandardCharsets.UTF_8);
+        // parsed by the stream modules
+        MathMLCanonicalizer filtered = MathMLCanonicalizer.getDefaultCanonicalizer();
+        assertThrows(ModuleException.class, () -> filtered.canonicalize(
+                new ByteArrayInputStream(input), new ByteArrayOutputStream()));
+        // parsed by the SAX builder
+        MathMLCanonicalizer built = new MathMLCanonicalizer();
+        built.addModule("MrowNormalizer");
+        assertThrows(ModuleException.class, () -> built.canonicalize(
+                new ByteArrayInputStream(input), new ByteArrayOutputStream()));
+        assertThrows(ModuleException.class, () -> built.canonicalize(new ByteArrayInputStream(input)));
+    }
+
+    @Test
+    public void compiledCanonicalizerShouldBeImmutable() throws Exception {
+        MathMLCanonicalizer canonicalizer = new MathMLCanonicalizer().compile();
+
+        assertTrue(canonicalizer.isCompiled());
+        assertSame(canonicalizer, canonicalizer.compile());
+        assertThrows(IllegalStateException.class, () -> canonicalizer.addModule("ElementMinimizer"));
+        assertThrows(IllegalStateException.class, () -> canonicalizer.setEnforcingXHTMLPlusMathMLDTD(true));
+        assertThrows(IllegalStateException.class, () -> canonicalizer.setFusingDOMModules(true));
+    }
+
+    @Test
+    public void compiledCanonicalizerShouldKeepSettings() throws Exception {
+        final String input = "<math xmlns=\"http://www.w3.org/1998/Math/MathML\"><mi>&alpha;</mi></math>";
+        final String dtd = Settings.getProperty("dtdXHTMLPlusMathMLPlusSVG");
+        MathMLCanonicalizer canonicalizer = MathMLCanonicalizer.getDefaultCanonicalizer();
+        canonicalizer.setEnforcingXHTMLPlusMathMLDTD(true);
+        MathMLCanonicalizer compiled = canonicalizer.compile();
+        final String fingerprint = compiled.getFingerprint();
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        compiled.canonicalize(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)), expected);
+
+        Settings.setProperty("dtdXHTMLPlusMathMLPlusSVG", "/nonexisting.dtd");
+        try {
+            assertThrows(ConfigError.class, () -> canonicalizer.canonicalize(
+                    new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)), new ByteArrayOutputStream()));
+            assertNotEquals(fingerprint, canonicalizer.getFingerprint());
+            // the compiled canonicalizer still reads the original DTD
+            ByteArrayOutputStream actual = new ByteArrayOutputStream();
+            compiled.canonicalize(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)), actual);
+            assertEquals(expected.toString(StandardCharsets.UTF_8), actual.toString(StandardCharsets.UTF_8));
+            assertEquals(fingerprint, compiled.getFingerprint());
+        } finally {
+            Settings.setProperty("dtdXHTMLPlusMathMLPlusSVG", dtd);
+        }
+    }
+
+    @Test
+    public void compiledCanonicalizerShouldBeThreadSafe() throws Exception {
+        MathMLCanonicalizer canonicalizer = MathMLCanonicalizer.getDefaultCanonicalizer();
+        MathMLCanonicalizer compiled = canonicalizer.compile();
+
+        final List<String> expected = new ArrayList<>();
+        for (InputStream resource : ModuleTestResources.getAllTestResources()) {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            canonicalizer.canonicalize(resource, output);
+            expected.add(output.toString(StandardCharsets.UTF_8));
+        }
+        // changing the original canonicalizer must not affect the compiled one
+        canonicalizer.addModule("MrowNormalizer");
+
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<List<String>>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                results.add(executor.submit(() -> {
+                    final List<String> actual = new ArrayList<>();
+                    for (InputStream resource : ModuleTestResources.getAllTestResources()) {
+                        ByteArrayOutputStream output = new ByteArrayOutputStream();
+                        compiled.canonicalize(resource, output);
+                        actual.add(output.toString(StandardCharsets.UTF_8));
+                    }
+                    return actual;
+                }));
+            }
+            for (Future<List<String>> result : results) {
+                assertEquals(expected, result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void fusedDOMModulesShouldGiveSameOutput() throws Exception {
+        MathMLCanonicalizer sequential = MathMLCanonicalizer.getDefaultCanonicalizer();
+        MathMLCanonicalizer fused = MathMLCanonicalizer.getDefaultCanonicalizer();
+        fused.setFusingDOMModules(true);
+        final List<List<String>> walks = new ArrayList<>();
+        fused.setPipelineListener(new PipelineListener() {
+            @Override
+            public void modulesExecuted(List<ElementVisitorModule> modules, long nanos, long allocatedBytes) {
+                final List<String> names = new ArrayList<>();
+                for (Module module : modules) {
+                    names.add(module.getClass().getSimpleName());
+                }
+                walks.add(names);
+            }
+        });
+
+        int count = 0;
+        final Iterator<InputStream> resources = ModuleTestResources.getAllTestResources().iterator();
+        for (InputStream resource : ModuleTestResources.getAllTestResources()) {
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            sequential.canonicalize(resource, expected);
+            ByteArrayOutputStream actual = new ByteArrayOutputStream();
+            fused.canonicalize(resources.next(), actual);
+            assertEquals(expected.toString(StandardCharsets.UTF_8), actual.toString(StandardCharsets.UTF_8));
+            count++;
+        }
+        // the default modules share a single walk of each document
+        assertEquals(count, walks.size());
+        for (List<String> walk : walks) {
+            assertEquals(Arrays.asList("UnaryOperatorRemover", "SingleTopElementOutputter"), walk);
+        }
+    }
+
+    @Test
+    public void cachedCanonicalizerShouldGiveSameOutput() throws Exception {
+        MathMLCanonicalizer canonicalizer = MathMLCanonicalizer.getDefaultCanonicalizer();
+        MathMLCanonicalizer configured = MathMLCanonicalizer.getDefaultCanonicalizer();
+        MemoryCanonicalizationCache cache = new MemoryCanonicalizationCache(1 << 20);
+        configured.setCache(cache);
+        // the fingerprint of a canonicalizer being configured is not stable
+        assertThrows(IllegalStateException.class, () -> configured.canonicalize(
+                ModuleTestResources.getAllTestResources().iterator().next(), new ByteArrayOutputStream()));
+        MathMLCanonicalizer cached = configured.compile();
+
+        int count = 0;
+        for (InputStream resource : ModuleTestResources.getAllTestResources()) {
+            final byte[] input = IOUtils.toByteArray(resource);
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            canonicalizer.canonicalize(new ByteArrayInputStream(input), expected);
+            for (int i = 0; i < 2; i++) {
+                ByteArrayOutputStream actual = new ByteArrayOutputStream();
+                cached.canonicalize(new ByteArrayInputStream(input), actual);
+                assertEquals(expected.toString(StandardCharsets.UTF_8), actual.toString(StandardCharsets.UTF_8));
+            }
+            count++;
+        }
+        assertEquals(count, cache.getHitCount());
+
+        // different configuration must not get the cached outputs
+        MathMLCanonicalizer other = new MathMLCanonicalizer();
+        other.addModule("ElementMinimizer");
+        other.setCache(cache);
+        other.compile().canonicalize(ModuleTestResources.getAllTestResources().iterator().next(), new ByteArrayOutputStream());
+        assertEquals(count, cache.getHitCount());
+    }
+
+    @Test
+    public void fingerprintShouldIdentifyConfiguration() throws Exception {
+        MathMLCanonicalizer canonicalizer = MathMLCanonicalizer.getDefaultCanonicalizer();
+        final String fingerprint = canonicalizer.getFingerprint();
+
+        assertEquals(64, fingerprint.length());
+        assertEquals(fingerprint, MathMLCanonicalizer.getDefaultCanonicalizer().getFingerprint());
+        assertEquals(fingerprint, canonicalizer.compile().getFingerprint());
+        // fusion does not change the output
+        canonicalizer.setFusingDOMModules(true);
+        assertEquals(fingerprint, canonicalizer.getFingerprint());
+
+        canonicalizer.setResolvingNamedEntities(true);
+        assertNotEquals(fingerprint, canonicalizer.getFingerprint());
+        canonicalizer.setResolvingNamedEntities(false);
+        canonicalizer.addModule("SingleTopElementOutputter");
+        assertNotEquals(fingerprint, canonicalizer.getFingerprint());
+    }
+
+    @Test
+    public void fingerprintShouldNotDependOnPropertyOrder() throws Exception {
+        final String[] keys = {"wrapInside", "wrapOutside", "open", "close"};
+        MathMLCanonicalizer first = new MathMLCanonicalizer();
+        Module firstModule = new MrowNormalizer();
+        for (int i = 0; i < keys.length; i++) {
+            firstModule.setProperty(keys[i], String.valueOf(i % 2));
+        }
+        first.addModule(firstModule);
+        MathMLCanonicalizer second = new MathMLCanonicalizer();
+        Module secondModule = new MrowNormalizer();
+        for (int i = keys.length - 1; i >= 0; i--) {
+            secondModule.setProperty(keys[i], String.valueOf(i % 2));
+        }
+        second.addModule(secondModule);
+
+        assertEquals(first.getFingerprint(), second.getFingerprint());
+        secondModule.setProperty("open", "(");
+        assertNotEquals(first.getFingerprint(), second.getFingerprint());
+    }
+
+    @Test
+    public void shouldResolveNamedEntitiesWithoutDTD() throws Exception {
+        final String input = "<math xmlns=\"http://www.w3.org/1998/Math/MathML\">"
+                + "<mi>&alpha;</mi><mo>&InvisibleTimes;</mo><mi>&Afr;</mi></math>";
+
+        MathMLCanonicalizer withDTD = MathMLCanonicalizer.getDefaultCanonicalizer();
+        withDTD.setEnforcingXHTMLPlusMathMLDTD(true);
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        withDTD.canonicalize(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)), expected);
+
+        MathMLCanonicalizer withoutDTD = MathMLCanonicalizer.getDefaultCanonicalizer();
+        withoutDTD.setResolvingNamedEntities(true);
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        withoutDTD.canonicalize(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)), actual);
+
+        assertEquals(expected.toString(StandardCharsets.UTF_8), actual.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void pipelineStatisticsShouldReportSteps() throws Exception {
+        final String input = "<math xmlns=\"http://www.w3.org/1998/Math/MathML\">"
+                + "<mfenced><mi>x</mi><mi>y</mi></mfenced><msqrt><mrow><mi>z</mi></mrow></msqrt></math>";
+        final PipelineStatistics statistics = new PipelineStatistics();
+        final MathMLCanonicalizer configured = MathMLCanonicalizer.getDefaultCanonicalizer();
+        configured.setPipelineListener(statistics);
+        final MathMLCanonicalizer canonicalizer = configured.compile();
+
+        canonicalizer.canonicalize(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)),
+                new ByteArrayOutputStream());
+        assertEquals(1, statistics.getDocumentCount());
+        assertEquals(1, statistics.getStepCount(PipelineStatistics.PARSE));
+        assertEquals(1, statistics.getStepCount(PipelineStatistics.SERIALIZE));
+        assertEquals(1, statistics.getStepCount("MrowNormalizer"));
+        assertEquals(1, statistics.getStepCount("ElementMinimizer"));
+        assertTrue(statistics.getStepNanos("MrowNormalizer") > 0);
+        assertEquals(1, statistics.getCounter("MfencedReplacer." + MfencedReplacer.FENCED_REPLACED));
+        assertTrue(statistics.getCounter("MrowNormalizer." + MrowNormalizer.ROWS_REMOVED) > 0);
+
+        assertThrows(Exception.class, () -> canonicalizer.canonicalize(
+                new ByteArrayInputStream("<math>".getBytes(StandardCharsets.UTF_8)), new ByteArrayOutputStream()));
+        assertEquals(1, statistics.getDocumentCount());
+        assertEquals(1, statistics.getFailureCount());
+    }
+
     @Disabled
     @Test
     public void stressTest() throws Exception {
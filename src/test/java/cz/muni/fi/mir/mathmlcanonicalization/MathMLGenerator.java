@@ -0,0 +1,311 @@
+/**
+ * Copyright 2013 MIR@MU Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cz.muni.fi.mir.mathmlcanonicalization;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Deterministic generator of synthetic Presentation and Content MathML
+ * formulae for benchmarks and scaling tests.
+ *
+ * Formulae generated by generators with the same seed and settings are the
+ * same. The size of a formula is the number of its token elements
+ * ({@code <mi>}, {@code <mn>}, {@code <mo>}, {@code <ci>}, ...), nesting
+ * deeper than the depth setting is flattened into rows, so large formulae of
+ * low depth contain long rows.
+ */
+public class MathMLGenerator {
+
+    private static final String HEADER = "<math xmlns=\"http://www.w3.org/1998/Math/MathML\">";
+    private static final String FOOTER = "</math>";
+    private static final String[] IDENTIFIERS = {"x", "y", "z", "a", "b", "n", "i", "k"};
+    private static final String[] IDENTIFIER_ENTITIES = {"&alpha;", "&beta;", "&pi;", "&lambda;", "&omega;"};
+    private static final String[] BINARY_OPERATORS = {"+", "-", "=", "−", "·", "⁢", "&lt;", "/"};
+    private static final String[] OPERATOR_ENTITIES = {"&InvisibleTimes;", "&minus;", "&sdot;", "&le;", "&times;"};
+    private static final String[] FUNCTIONS = {"sin", "cos", "log", "exp"};
+    private static final String[][] PARENTHESES = {{"(", ")"}, {"[", "]"}, {"{", "}"}};
+    private static final String[] SCRIPTS = {"msub", "msup", "munder", "mover", "msubsup", "munderover"};
+    private static final String[] CONTENT_OPERATORS = {"plus", "minus", "times", "divide", "eq", "power"};
+
+    private final Random random;
+    private int depth = 6;
+    private int fanOut = 4;
+    private double mfencedDensity = 0.1;
+    private double scriptDensity = 0.2;
+    private double parenthesesDensity = 0.2;
+    private double functionDensity = 0.1;
+    private double unaryDensity = 0.1;
+    private double entityDensity = 0.0;
+    private boolean content = false;
+
+    /**
+     * Creates generator with default settings.
+     *
+     * @param seed seed of the generated formulae
+     */
+    public MathMLGenerator(long seed) {
+        random = new Random(seed);
+    }
+
+    /**
+     * @param depth maximal nesting depth of rows, fences and scripts
+     * @return this generator
+     */
+    public MathMLGenerator setDepth(int depth) {
+        this.depth = depth;
+        return this;
+    }
+
+    /**
+     * @param fanOut average number of operands in a row
+     * @return this generator
+     */
+    public MathMLGenerator setFanOut(int fanOut) {
+        if (fanOut < 1) {
+            throw new IllegalArgumentException("fanOut < 1");
+        }
+        this.fanOut = fanOut;
+        return this;
+    }
+
+    /**
+     * @param density probability of an operand being {@code <mfenced>}
+     * @return this generator
+     */
+    public MathMLGenerator setMfencedDensity(double density) {
+        this.mfencedDensity = density;
+        return this;
+    }
+
+    /**
+     * @param density probability of an operand being a script, scripts of
+     * scripts are nested up to the depth
+     * @return this generator
+     */
+    public MathMLGenerator setScriptDensity(double density) {
+        this.scriptDensity = density;
+        return this;
+    }
+
+    /**
+     * @param density probability of an operand being a row enclosed in
+     * parentheses {@code <mo>}
+     * @return this generator
+     */
+    public MathMLGenerator setParenthesesDensity(double density) {
+        this.parenthesesDensity = density;
+        return this;
+    }
+
+    /**
+     * @param density probability of an operand being a function application
+     * @return this generator
+     */
+    public MathMLGenerator setFunctionDensity(double density) {
+        this.functionDensity = density;
+        return this;
+    }
+
+    /**
+     * @param density probability of a row starting by a unary operator
+     * @return this generator
+     */
+    public MathMLGenerator setUnaryDensity(double density) {
+        this.unaryDensity = density;
+        return this;
+    }
+
+    /**
+     * @param density probability of a token being a named entity reference,
+     * such formulae need the named entities to be resolved
+     * @return this generator
+     */
+    public MathMLGenerator setEntityDensity(double density) {
+        this.entityDensity = density;
+        return this;
+    }
+
+    /**
+     * @param content whether to generate Content MathML instead of
+     * Presentation MathML
+     * @return this generator
+     */
+    public MathMLGenerator setContent(boolean content) {
+        this.content = content;
+        return this;
+    }
+
+    /**
+     * Generates the next formula.
+     *
+     * @param size number of token elements
+     * @return formula as a document
+     */
+    public String generate(int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("size < 1");
+        }
+        final StringBuilder formula = new StringBuilder(HEADER.length() + FOOTER.length() + 24 * size);
+        formula.append(HEADER);
+        if (content) {
+            appendApply(formula, size, 0);
+        } else {
+            appendRow(formula, size, 0);
+        }
+        formula.append(FOOTER);
+        return formula.toString();
+    }
+
+    /**
+     * Generates the next formula.
+     *
+     * @param size number of token elements
+     * @return formula as UTF-8 encoded document
+     */
+    public byte[] generateBytes(int size) {
+        return generate(size).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Appends row of operands separated by binary operators.
+     */
+    private void appendRow(StringBuilder formula, int size, int level) {
+        assert size > 0;
+        formula.append("<mrow>");
+        int remaining = size;
+        if (remaining > 1 && random.nextDouble() < unaryDensity) {
+            appendOperator(formula);
+            remaining--;
+        }
+        // operands up to the depth, then a flat row of tokens
+        final int operands = level >= depth ? (remaining + 1) / 2 : Math.min(fanOut, (remaining + 1) / 2);
+        for (int i = 0; i < operands; i++) {
+            // leave one token for each following operand and operator
+            final int left = operands - i - 1;
+            final int operandSize = i == operands - 1 ? remaining
+                    : Math.max(1, (remaining - 2 * left) / (left + 1));
+            appendOperand(formula, operandSize, level);
+            remaining -= operandSize;
+            if (i < operands - 1) {
+                appendOperator(formula);
+                remaining--;
+            }
+        }
+        formula.append("</mrow>");
+    }
+
+    private void appendOperand(StringBuilder formula, int size, int level) {
+        if (size == 1 || level >= depth) {
+            if (size == 1) {
+                appendToken(formula);
+            } else {
+                appendRow(formula, size, level + 1);
+            }
+            return;
+        }
+        double choice = random.nextDouble();
+        if ((choice -= mfencedDensity) < 0 && size >= 2) {
+            formula.append("<mfenced>");
+            final int children = Math.min(size, 1 + random.nextInt(3));
+            int remaining = size;
+            for (int i = 0; i < children; i++) {
+                final int childSize = i == children - 1 ? remaining : remaining / (children - i);
+                appendRow(formula, childSize, level + 1);
+                remaining -= childSize;
+            }
+            formula.append("</mfenced>");
+        } else if ((choice -= scriptDensity) < 0 && size >= 2) {
+            // scripts with two scripts need three tokens
+            final String script = SCRIPTS[random.nextInt(size >= 3 ? SCRIPTS.length : 2)];
+            final int scripts = script.equals("msubsup") || script.equals("munderover") ? 2 : 1;
+            final int scriptSize = Math.max(1, (size - 1) / (2 * scripts + 2));
+            final int baseSize = Math.max(1, size - scripts * scriptSize);
+            formula.append('<').append(script).append('>');
+            appendOperand(formula, baseSize, level + 1);
+            for (int i = 0; i < scripts; i++) {
+                appendOperand(formula, scriptSize, level + 1);
+            }
+            formula.append("</").append(script).append('>');
+        } else if ((choice -= parenthesesDensity) < 0 && size >= 3) {
+            final String[] parentheses = PARENTHESES[random.nextInt(PARENTHESES.length)];
+            formula.append("<mrow><mo>").append(parentheses[0]).append("</mo>");
+            appendRow(formula, size - 2, level + 1);
+            formula.append("<mo>").append(parentheses[1]).append("</mo></mrow>");
+        } else if ((choice -= functionDensity) < 0 && size >= 3) {
+            formula.append("<mi>").append(FUNCTIONS[random.nextInt(FUNCTIONS.length)]).append("</mi>");
+            formula.append("<mo>").append(entity() ? "&ApplyFunction;" : "⁡").append("</mo>");
+            appendOperand(formula, size - 2, level + 1);
+        } else {
+            appendRow(formula, size, level + 1);
+        }
+    }
+
+    private void appendToken(StringBuilder formula) {
+        if (random.nextInt(3) == 0) {
+            formula.append("<mn>").append(random.nextInt(100)).append("</mn>");
+        } else if (entity()) {
+            formula.append("<mi>").append(IDENTIFIER_ENTITIES[random.nextInt(IDENTIFIER_ENTITIES.length)]).append("</mi>");
+        } else {
+            formula.append("<mi>").append(IDENTIFIERS[random.nextInt(IDENTIFIERS.length)]).append("</mi>");
+        }
+    }
+
+    private void appendOperator(StringBuilder formula) {
+        formula.append("<mo>");
+        if (entity()) {
+            formula.append(OPERATOR_ENTITIES[random.nextInt(OPERATOR_ENTITIES.length)]);
+        } else {
+            formula.append(BINARY_OPERATORS[random.nextInt(BINARY_OPERATORS.length)]);
+        }
+        formula.append("</mo>");
+    }
+
+    /**
+     * Appends Content MathML application with the given number of tokens.
+     */
+    private void appendApply(StringBuilder formula, int size, int level) {
+        if (size == 1) {
+            if (random.nextInt(3) == 0) {
+                formula.append("<cn>").append(random.nextInt(100)).append("</cn>");
+            } else {
+                formula.append("<ci>").append(entity() ? IDENTIFIER_ENTITIES[random.nextInt(IDENTIFIER_ENTITIES.length)]
+                        : IDENTIFIERS[random.nextInt(IDENTIFIERS.length)]).append("</ci>");
+            }
+            return;
+        }
+        formula.append("<apply>");
+        if (random.nextDouble() < unaryDensity) {
+            formula.append("<minus/>");
+            appendApply(formula, size - 1, level + 1);
+        } else {
+            formula.append('<').append(CONTENT_OPERATORS[random.nextInt(CONTENT_OPERATORS.length)]).append("/>");
+            final int operands = level >= depth ? size - 1 : Math.min(fanOut, size - 1);
+            int remaining = size - 1;
+            for (int i = 0; i < operands; i++) {
+                final int operandSize = i == operands - 1 ? remaining : Math.max(1, remaining / (operands - i));
+                appendApply(formula, operandSize, level + 1);
+                remaining -= operandSize;
+            }
+        }
+        formula.append("</apply>");
+    }
+
+    private boolean entity() {
+        return entityDensity > 0 && random.nextDouble() < entityDensity;
+    }
+
+}
@@ -0,0 +1,68 @@
+/**
+ * Copyright 2013 MIR@MU Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cz.muni.fi.mir.mathmlcanonicalization;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Test cases for MemoryCanonicalizationCache class.
+ */
+public class MemoryCanonicalizationCacheTest {
+
+    @Test
+    public void shouldCountHitsAndMisses() {
+        final MemoryCanonicalizationCache cache = new MemoryCanonicalizationCache(1024);
+        assertNull(cache.get("a"));
+        cache.put("a", new byte[]{1, 2});
+        assertArrayEquals(new byte[]{1, 2}, cache.get("a"));
+
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getEntryCount());
+    }
+
+    @Test
+    public void shouldEvictLeastRecentlyUsed() {
+        final MemoryCanonicalizationCache cache = new MemoryCanonicalizationCache(3 * 200);
+        cache.put("a", new byte[50]);
+        cache.put("b", new byte[50]);
+        cache.put("c", new byte[50]);
+        cache.get("a");
+        cache.put("d", new byte[50]);
+
+        assertNull(cache.get("b"));
+        assertEquals(3, cache.getEntryCount());
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(50, cache.get("a").length);
+        assertTrue(cache.getBytes() <= cache.getMaxBytes());
+    }
+
+    @Test
+    public void shouldNotStoreOutputLargerThanCache() {
+        final MemoryCanonicalizationCache cache = new MemoryCanonicalizationCache(100);
+        cache.put("a", new byte[200]);
+
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.getBytes());
+        assertEquals(0, cache.getEvictionCount());
+    }
+
+}
@@ -0,0 +1,176 @@
+/**
+ * Copyright 2013 MIR@MU Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cz.muni.fi.mir.mathmlcanonicalization;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+import org.apache.commons.io.output.ByteArrayOutputStream;
+import org.jdom2.Document;
+import org.jdom2.Element;
+import org.jdom2.input.SAXBuilder;
+import org.jdom2.output.XMLOutputter;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/**
+ * Scaling tests over formulae generated by {@link MathMLGenerator}.
+ *
+ * The timing tests check that the modules run in about linear time in the
+ * formula size. They are slow and depend on the machine load, so they run
+ * only with {@code -Dscaling=true}.
+ */
+public class ScalingTest {
+
+    private static final Logger LOGGER = Logger.getLogger(ScalingTest.class.getName());
+
+    private static final int SIZE = 2000;
+    private static final int FACTOR = 8;
+    // linear time gives ratio about FACTOR, quadratic FACTOR * FACTOR
+    private static final double MAX_RATIO = FACTOR * 3;
+    private static final int REPETITIONS = 5;
+
+    @Test
+    public void generatorShouldBeDeterministic() {
+        final MathMLGenerator generator = new MathMLGenerator(42).setEntityDensity(0.1);
+        final List<String> formulae = new ArrayList<>();
+        for (int size = 1; size < 200; size += 7) {
+            formulae.add(generator.generate(size));
+        }
+        final MathMLGenerator same = new MathMLGenerator(42).setEntityDensity(0.1);
+        for (int size = 1, i = 0; size < 200; size += 7, i++) {
+            assertEquals(formulae.get(i), same.generate(size));
+        }
+        assertFalse(formulae.get(10).equals(new MathMLGenerator(43).setEntityDensity(0.1).generate(71)));
+    }
+
+    @Test
+    public void generatorShouldRespectSize() throws Exception {
+        final SAXBuilder builder = new SAXBuilder();
+        final MathMLGenerator generator = new MathMLGenerator(1);
+        for (int size = 1; size < 500; size += 13) {
+            final Document document = builder.build(new ByteArrayInputStream(generator.generateBytes(size)));
+            assertEquals(size, countTokens(document.getRootElement()), "size " + size);
+        }
+    }
+
+    @Test
+    public void generatedFormulaeShouldBeCanonicalized() throws Exception {
+        final MathMLCanonicalizer canonicalizer = MathMLCanonicalizer.getDefaultCanonicalizer();
+        canonicalizer.setResolvingNamedEntities(true);
+        final MathMLGenerator presentation = new MathMLGenerator(7).setEntityDensity(0.2)
+                .setMfencedDensity(0.3).setScriptDensity(0.3);
+        final MathMLGenerator content = new MathMLGenerator(7).setEntityDensity(0.2).setContent(true);
+        for (int size = 1; size < 300; size += 11) {
+            for (MathMLGenerator generator : new MathMLGenerator[]{presentation, content}) {
+                final byte[] output = canonicalize(canonicalizer, generator.generateBytes(size));
+                assertTrue(output.length > 0);
+            }
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"ElementMinimizer", "FunctionNormalizer", "MfencedReplacer", "MrowNormalizer",
+        "OperatorNormalizer", "ScriptNormalizer", "UnaryOperatorRemover", "SingleTopElementOutputter"})
+    @EnabledIfSystemProperty(named = "scaling", matches = "true")
+    public void moduleShouldScaleLinearly(String module) throws Exception {
+        assertLinear(module, configured(module), new MathMLGenerator(0).setDepth(3));
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "scaling", matches = "true")
+    public void deepFormulaeShouldScaleLinearly() throws Exception {
+        assertLinear("deep", MathMLCanonicalizer.getDefaultCanonicalizer(),
+                new MathMLGenerator(0).setDepth(Integer.MAX_VALUE).setFanOut(2));
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "scaling", matches = "true")
+    public void contentMathMLShouldScaleLinearly() throws Exception {
+        assertLinear("content", MathMLCanonicalizer.getDefaultCanonicalizer(),
+                new MathMLGenerator(0).setContent(true));
+    }
+
+    private static void assertLinear(String name, MathMLCanonicalizer canonicalizer,
+            MathMLGenerator generator) throws Exception {
+        final byte[] small = generator.generateBytes(SIZE);
+        final byte[] large = generator.generateBytes(SIZE * FACTOR);
+        // warm up
+        for (int i = 0; i < REPETITIONS; i++) {
+            canonicalize(canonicalizer, small);
+            canonicalize(canonicalizer, large);
+        }
+        final double ratio = (double) time(canonicalizer, large) / time(canonicalizer, small);
+        LOGGER.info(String.format("%s: time ratio %.1f for size ratio %d", name, ratio, FACTOR));
+        assertTrue(ratio < MAX_RATIO, name + ": time ratio " + ratio + " for size ratio " + FACTOR);
+    }
+
+    // minimal time of the repetitions
+    private static long time(MathMLCanonicalizer canonicalizer, byte[] input) throws Exception {
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < REPETITIONS; i++) {
+            final long start = System.nanoTime();
+            canonicalize(canonicalizer, input);
+            min = Math.min(min, System.nanoTime() - start);
+        }
+        return Math.max(min, 1);
+    }
+
+    private static byte[] canonicalize(MathMLCanonicalizer canonicalizer, byte[] input) throws Exception {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        canonicalizer.canonicalize(new ByteArrayInputStream(input), output);
+        return output.toByteArray();
+    }
+
+    /**
+     * Creates canonicalizer with the single module configured as by default.
+     */
+    private static MathMLCanonicalizer configured(String module) throws Exception {
+        final Document config;
+        try (InputStream in = Settings.getStreamFromProperty("defaultConfig")) {
+            config = new SAXBuilder().build(in);
+        }
+        for (Element element : new ArrayList<>(config.getRootElement().getChildren("module"))) {
+            if (!module.equals(element.getAttributeValue("name"))) {
+                element.detach();
+            }
+        }
+        final byte[] bytes = new XMLOutputter().outputString(config).getBytes(StandardCharsets.UTF_8);
+        return new MathMLCanonicalizer(new ByteArrayInputStream(bytes));
+    }
+
+    private static int countTokens(Element element) {
+        if (element.getChildren().isEmpty()) {
+            return element.getName().equals("math") ? 0 : 1;
+        }
+        int count = 0;
+        for (Element child : element.getChildren()) {
+            count += countTokens(child);
+        }
+        return count;
+    }
+
+}
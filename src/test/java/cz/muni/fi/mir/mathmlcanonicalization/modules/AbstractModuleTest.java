@@ -26,6 +26,7 @@ import java.util.logging.Logger;
 import org.custommonkey.xmlunit.XMLTestCase;
 import org.custommonkey.xmlunit.XMLUnit;
 import org.jdom2.Document;
+import org.jdom2.Element;
 import org.jdom2.JDOMException;
 import org.jdom2.input.SAXBuilder;
 import org.jdom2.output.XMLOutputter;
@@ -70,6 +71,24 @@ abstract class AbstractModuleTest {
         }
     }
 
+    /**
+     * Creates MathML document with elements of the given name nested to the
+     * given depth, the innermost of them containing the leaf.
+     *
+     * @param name name of the nested elements
+     * @param depth number of the nested elements
+     * @param leaf content of the innermost element
+     * @return document with math root element
+     */
+    protected static Document getNestedDocument(String name, int depth, Element leaf) {
+        // built from the leaf, adding to a detached element is cheaper
+        Element element = leaf;
+        for (int i = 0; i < depth; i++) {
+            element = new Element(name, AbstractModule.MATHMLNS).addContent(element);
+        }
+        return new Document(new Element("math", AbstractModule.MATHMLNS).addContent(element));
+    }
+
     protected void testIdempotence(Module instance, String testFile) {
         final InputStream processed = getProcessed(instance, testFile, false);
         final InputStream processedTwice = getProcessed(
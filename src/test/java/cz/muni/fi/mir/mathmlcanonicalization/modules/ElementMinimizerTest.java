@@ -63,4 +63,15 @@ public class ElementMinimizerTest extends AbstractModuleTest {
         testXML(DEFAULT_INSTANCE, RESOURCE_SUBDIR + "attributes");
     }
 
+    @Test
+    public void testReconfiguredAttributes() {
+        final Module instance = new ElementMinimizer();
+        for (String property : DEFAULT_INSTANCE.getPropertyNames()) {
+            instance.setProperty(property, DEFAULT_INSTANCE.getProperty(property));
+        }
+        testXML(instance, RESOURCE_SUBDIR + "attributes");
+        instance.setProperty("keepAttributes.mfrac", "linethickness");
+        testXML(instance, RESOURCE_SUBDIR + "attributes-reconfigured");
+    }
+
 }
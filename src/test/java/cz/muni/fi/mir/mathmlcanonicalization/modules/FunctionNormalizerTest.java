@@ -15,8 +15,12 @@
  */
 package cz.muni.fi.mir.mathmlcanonicalization.modules;
 
+import org.jdom2.Document;
+import org.jdom2.Element;
+import org.jdom2.filter.ElementFilter;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
 
 /**
  * Test for FunctionNormalizer canonicalization DOM Module.
@@ -53,4 +57,17 @@ public class FunctionNormalizerTest extends AbstractModuleTest {
         testXML(DEFAULT_INSTANCE, RESOURCE_SUBDIR + "sin");
     }
 
+
+    @Test
+    public void testDeepNesting() throws ModuleException {
+        final Element leaf = new Element("mrow", AbstractModule.MATHMLNS)
+                .addContent(new Element("mi", AbstractModule.MATHMLNS).setText("f"))
+                .addContent(new Element("mo", AbstractModule.MATHMLNS).setText("\u2061"))
+                .addContent(new Element("mi", AbstractModule.MATHMLNS).setText("x"));
+        final Document doc = getNestedDocument("mrow", 20000, leaf);
+        ((DOMModule) DEFAULT_INSTANCE).execute(doc);
+        assertEquals(2, leaf.getChildren().size());
+        assertEquals(3, leaf.getChildren().get(1).getChildren().size());
+    }
+
 }
@@ -15,8 +15,12 @@
  */
 package cz.muni.fi.mir.mathmlcanonicalization.modules;
 
+import org.jdom2.Document;
+import org.jdom2.Element;
+import org.jdom2.filter.ElementFilter;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
 
 /**
  * Test for MrowNormalizer canonicalization DOM Module.
@@ -97,6 +101,11 @@ public class MrowNormalizerTest extends AbstractModuleTest {
         testXML(DEFAULT_INSTANCE, RESOURCE_SUBDIR + "parentheses5");
     }
 
+    @Test
+    public void testUnmatchedParentheses() {
+        testXML(DEFAULT_INSTANCE, RESOURCE_SUBDIR + "unmatched");
+    }
+
     @Test
     public void testInterval() {
         testXML(DEFAULT_INSTANCE, RESOURCE_SUBDIR + "interval");
@@ -132,4 +141,17 @@ public class MrowNormalizerTest extends AbstractModuleTest {
         testXML(CONFIGURED_INSTANCE, RESOURCE_SUBDIR + "configured");
     }
 
+
+    @Test
+    public void testDeepNesting() throws ModuleException {
+        final Element leaf = new Element("mrow", AbstractModule.MATHMLNS)
+                .addContent(new Element("mi", AbstractModule.MATHMLNS).setText("x"))
+                .addContent(new Element("mo", AbstractModule.MATHMLNS).setText("+"))
+                .addContent(new Element("mi", AbstractModule.MATHMLNS).setText("y"));
+        final Document doc = getNestedDocument("mrow", 20000, leaf);
+        ((DOMModule) DEFAULT_INSTANCE).execute(doc);
+        assertEquals(3, doc.getRootElement().getChildren().size());
+        assertFalse(doc.getDescendants(new ElementFilter("mrow")).hasNext());
+    }
+
 }
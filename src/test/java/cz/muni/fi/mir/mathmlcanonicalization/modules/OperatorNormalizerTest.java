@@ -15,8 +15,15 @@
  */
 package cz.muni.fi.mir.mathmlcanonicalization.modules;
 
+import cz.muni.fi.mir.mathmlcanonicalization.Settings;
+import java.io.InputStream;
+import org.jdom2.Document;
+import org.jdom2.Element;
+import org.jdom2.filter.ElementFilter;
+import org.jdom2.input.SAXBuilder;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
 
 /**
  * Test for OperatorNormalizer canonicalization DOM Module.
@@ -70,4 +77,56 @@ public class OperatorNormalizerTest extends AbstractModuleTest {
         testXML(DEFAULT_INSTANCE, RESOURCE_SUBDIR + "operator2identifier");
     }
 
+    @Test
+    public void testNestedOperators() {
+        testXML(DEFAULT_INSTANCE, RESOURCE_SUBDIR + "nested-operators");
+    }
+
+    @Test
+    public void testIdentifierConversion() {
+        testXML(DEFAULT_INSTANCE, RESOURCE_SUBDIR + "identifier-conversion");
+    }
+
+    @Test
+    public void testReplacement2identifier() {
+        final Module instance = new OperatorNormalizer();
+        instance.setProperty("removeempty", "false");
+        instance.setProperty("removeoperators", "");
+        instance.setProperty("replaceoperators", "lg:log");
+        instance.setProperty("colonreplacement", "");
+        instance.setProperty("normalizationform", "");
+        instance.setProperty("operators", "");
+        instance.setProperty("identifiers", "log");
+        testXML(instance, RESOURCE_SUBDIR + "replacement2identifier");
+    }
+
+    @Test
+    public void testScriptOperators() {
+        testXML(DEFAULT_INSTANCE, RESOURCE_SUBDIR + "script-operators");
+    }
+
+    @Test
+    public void testDefaultConfigOperatorRanges() throws Exception {
+        final Module instance = new OperatorNormalizer();
+        try (InputStream config = Settings.getStreamFromProperty("defaultConfig")) {
+            for (Element module : new SAXBuilder().build(config).getRootElement().getChildren("module")) {
+                if (module.getAttributeValue("name").equals("OperatorNormalizer")) {
+                    for (Element property : module.getChildren("property")) {
+                        instance.setProperty(property.getAttributeValue("name"), property.getText());
+                    }
+                }
+            }
+        }
+        testXML(instance, RESOURCE_SUBDIR + "default-config");
+    }
+
+
+    @Test
+    public void testDeepNesting() throws ModuleException {
+        final Element leaf = new Element("mo", AbstractModule.MATHMLNS).setText("*");
+        final Document doc = getNestedDocument("mrow", 20000, leaf);
+        ((DOMModule) DEFAULT_INSTANCE).execute(doc);
+        assertFalse(doc.getDescendants(new ElementFilter("mo")).hasNext());
+    }
+
 }
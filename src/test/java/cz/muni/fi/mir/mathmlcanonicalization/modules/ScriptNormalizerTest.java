@@ -15,8 +15,12 @@
  */
 package cz.muni.fi.mir.mathmlcanonicalization.modules;
 
+import org.jdom2.Document;
+import org.jdom2.Element;
+import org.jdom2.filter.ElementFilter;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
 
 /**
  * Test for ScriptNormalizer canonicalization DOM Module.
@@ -65,4 +69,17 @@ public class ScriptNormalizerTest extends AbstractModuleTest {
         testXML(DEFAULT_INSTANCE, RESOURCE_SUBDIR + "underover");
     }
 
+
+    @Test
+    public void testDeepNesting() throws ModuleException {
+        final Element leaf = new Element("msubsup", AbstractModule.MATHMLNS)
+                .addContent(new Element("mi", AbstractModule.MATHMLNS).setText("x"))
+                .addContent(new Element("mn", AbstractModule.MATHMLNS).setText("1"))
+                .addContent(new Element("mn", AbstractModule.MATHMLNS).setText("2"));
+        final Document doc = getNestedDocument("mrow", 20000, leaf);
+        ((DOMModule) DEFAULT_INSTANCE).execute(doc);
+        assertFalse(doc.getDescendants(new ElementFilter("msubsup")).hasNext());
+        assertTrue(doc.getDescendants(new ElementFilter("msup")).hasNext());
+    }
+
 }
@@ -74,4 +74,34 @@ public class UnaryOperatorRemoverTest extends AbstractModuleTest {
         testXML(DEFAULT_INSTANCE, RESOURCE_SUBDIR + "cmathml-double-operator-with-namespace");
     }
 
+    @Test
+    public void testNestedOperatorPMathMLNoNamespace() {
+        testXML(DEFAULT_INSTANCE, RESOURCE_SUBDIR + "pmathml-nested-operator-no-namespace");
+    }
+
+    @Test
+    public void testNestedOperatorPMathMLWithNamespace() {
+        testXML(DEFAULT_INSTANCE, RESOURCE_SUBDIR + "pmathml-nested-operator-with-namespace");
+    }
+
+    @Test
+    public void testNestedApplyCMathMLNoNamespace() {
+        testXML(DEFAULT_INSTANCE, RESOURCE_SUBDIR + "cmathml-nested-apply-no-namespace");
+    }
+
+    @Test
+    public void testNestedApplyCMathMLWithNamespace() {
+        testXML(DEFAULT_INSTANCE, RESOURCE_SUBDIR + "cmathml-nested-apply-with-namespace");
+    }
+
+    @Test
+    public void testSemanticsNoNamespace() {
+        testXML(DEFAULT_INSTANCE, RESOURCE_SUBDIR + "semantics-no-namespace");
+    }
+
+    @Test
+    public void testSemanticsWithNamespace() {
+        testXML(DEFAULT_INSTANCE, RESOURCE_SUBDIR + "semantics-with-namespace");
+    }
+
 }
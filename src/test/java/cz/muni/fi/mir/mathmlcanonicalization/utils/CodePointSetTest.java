@@ -0,0 +1,79 @@
+/**
+ * Copyright 2013 MIR@MU Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cz.muni.fi.mir.mathmlcanonicalization.utils;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test cases for CodePointSet class.
+ */
+public class CodePointSetTest {
+
+    @Test
+    public void testRanges() {
+        final CodePointSet set = new CodePointSet().addRanges(" 2190-21FF  U+2A00-U+2AFF 29f5 ");
+        assertTrue(set.contains(0x2190));
+        assertTrue(set.contains(0x21FF));
+        assertTrue(set.contains(0x2A42));
+        assertTrue(set.contains(0x29F5));
+        assertFalse(set.contains(0x218F));
+        assertFalse(set.contains(0x2200));
+        assertFalse(set.contains(0x29F6));
+        assertFalse(set.contains(-1));
+        assertFalse(new CodePointSet().addRanges("").contains(0));
+    }
+
+    @Test
+    public void testSupplementaryRanges() {
+        final CodePointSet set = new CodePointSet()
+                .add(0x1D400, 0x1D410)
+                .add(0x1D420, 0x1D430)
+                .add(0x1D411, 0x1D41F) // joins both ranges
+                .add(0x1EE00, 0x1EEFF)
+                .add(0xFFF0, 0x10005);
+        for (int codePoint = 0x1D400; codePoint <= 0x1D430; codePoint++) {
+            assertTrue(set.contains(codePoint));
+        }
+        assertFalse(set.contains(0x1D3FF));
+        assertFalse(set.contains(0x1D431));
+        assertTrue(set.contains(0x1EE80));
+        assertFalse(set.contains(0x1EF00));
+        assertTrue(set.contains(0xFFFF));
+        assertTrue(set.contains(0x10000));
+        assertFalse(set.contains(0x10006));
+    }
+
+    @Test
+    public void testSingleCodePoint() {
+        assertEquals(0x2211, CodePointSet.getSingleCodePoint("\u2211"));
+        assertEquals(0x1D400, CodePointSet.getSingleCodePoint("\ud835\udc00"));
+        assertEquals(-1, CodePointSet.getSingleCodePoint(""));
+        assertEquals(-1, CodePointSet.getSingleCodePoint("<="));
+        assertEquals(-1, CodePointSet.getSingleCodePoint("\ud835\udc00x"));
+    }
+
+    @Test
+    public void testInvalidRanges() {
+        final CodePointSet set = new CodePointSet();
+        assertThrows(IllegalArgumentException.class, () -> set.addRanges("21FF-2190"));
+        assertThrows(IllegalArgumentException.class, () -> set.addRanges("xyz"));
+        assertThrows(IllegalArgumentException.class, () -> set.addRanges("2190-"));
+        assertThrows(IllegalArgumentException.class, () -> set.addRanges("-2190"));
+        assertThrows(IllegalArgumentException.class, () -> set.addRanges("110000"));
+    }
+
+}
@@ -15,13 +15,25 @@
  */
 package cz.muni.fi.mir.mathmlcanonicalization.utils;
 
+import cz.muni.fi.mir.mathmlcanonicalization.Settings;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.StringReader;
 import java.io.StringWriter;
 import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLResolver;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.DTD;
+import javax.xml.stream.events.EntityDeclaration;
+import javax.xml.stream.events.XMLEvent;
 import org.apache.commons.io.IOUtils;
 import org.custommonkey.xmlunit.XMLTestCase;
 import org.custommonkey.xmlunit.XMLUnit;
@@ -94,4 +106,48 @@ public class DTDManipulatorTest {
 
     }
 
+    /**
+     * Test of minifyDTD method, of class DTDManipulator.
+     */
+    @Test
+    public void testMinifyDTD() throws Exception {
+
+        System.out.println("minifyDTD");
+
+        byte[] dtd = IOUtils.toByteArray(Settings.getStreamFromProperty("dtdXHTMLPlusMathMLPlusSVG"));
+        byte[] minified = DTDManipulator.minifyDTD(dtd);
+
+        assertTrue(minified.length < dtd.length, "DTD not minified");
+        assertFalse(new String(minified, StandardCharsets.UTF_8).contains("<!--"), "comment not removed");
+        Map<String, String> entities = getEntities(dtd);
+        assertTrue(entities.containsKey("alpha"), "no entities read from DTD");
+        assertEquals(entities, getEntities(minified), "entity declarations changed");
+        assertArrayEquals(minified, IOUtils.toByteArray(Settings.getXHTMLPlusMathMLPlusSVGDTD()), "DTD not cached minified");
+
+    }
+
+    private static Map<String, String> getEntities(final byte[] dtd) throws XMLStreamException {
+        final XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+        inputFactory.setProperty(XMLInputFactory.RESOLVER, new XMLResolver() {
+            @Override
+            public Object resolveEntity(String publicID, String systemID, String baseURI, String namespace) {
+                return new ByteArrayInputStream(dtd);
+            }
+        });
+        final String document = "<!DOCTYPE math SYSTEM \"test.dtd\"><math/>";
+        final XMLEventReader reader = inputFactory.createXMLEventReader(new StringReader(document));
+        final Map<String, String> result = new HashMap<>();
+        while (reader.hasNext()) {
+            final XMLEvent event = reader.nextEvent();
+            if (event instanceof DTD) {
+                // a raw list in Java 8
+                for (Object declaration : ((DTD) event).getEntities()) {
+                    final EntityDeclaration entity = (EntityDeclaration) declaration;
+                    result.put(entity.getName(), entity.getReplacementText());
+                }
+            }
+        }
+        return result;
+    }
+
 }
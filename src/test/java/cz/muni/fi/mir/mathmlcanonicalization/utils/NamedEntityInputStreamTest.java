@@ -0,0 +1,190 @@
+/**
+ * Copyright 2013 MIR@MU Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cz.muni.fi.mir.mathmlcanonicalization.utils;
+
+import cz.muni.fi.mir.mathmlcanonicalization.Settings;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLResolver;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.events.DTD;
+import javax.xml.stream.events.EntityDeclaration;
+import javax.xml.stream.events.XMLEvent;
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test cases for NamedEntityInputStream class.
+ */
+public class NamedEntityInputStreamTest {
+
+    private static final Set<String> PREDEFINED_ENTITIES = new HashSet<>(
+            Arrays.asList("amp", "lt", "gt", "quot", "apos"));
+
+    /**
+     * The generated entity table has to match entities declared by the DTD.
+     */
+    @Test
+    public void testEntitiesMatchDTD() throws Exception {
+        final byte[] dtd = IOUtils.toByteArray(Settings.getStreamFromProperty("dtdXHTMLPlusMathMLPlusSVG"));
+        final XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+        inputFactory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        inputFactory.setProperty(XMLInputFactory.RESOLVER, new XMLResolver() {
+            @Override
+            public Object resolveEntity(String publicID, String systemID, String baseURI, String namespace) {
+                return new ByteArrayInputStream(dtd);
+            }
+        });
+
+        // declared general entities
+        final List<String> names = new ArrayList<>();
+        final XMLEventReader eventReader = inputFactory.createXMLEventReader(
+                new StringReader("<!DOCTYPE math SYSTEM \"test.dtd\"><math/>"));
+        while (eventReader.hasNext()) {
+            final XMLEvent event = eventReader.nextEvent();
+            if (event instanceof DTD) {
+                // a raw list in Java 8
+                for (Object declaration : ((DTD) event).getEntities()) {
+                    final EntityDeclaration entity = (EntityDeclaration) declaration;
+                    if (!entity.getName().startsWith("%") && entity.getReplacementText() != null
+                            && !PREDEFINED_ENTITIES.contains(entity.getName())) {
+                        names.add(entity.getName());
+                    }
+                }
+            }
+        }
+
+        // let the parser expand each of them
+        final StringBuilder document = new StringBuilder("<!DOCTYPE math SYSTEM \"test.dtd\"><math>");
+        for (String name : names) {
+            document.append("<e>&").append(name).append(";</e>");
+        }
+        document.append("</math>");
+        final Map<String, String> expected = new HashMap<>();
+        final XMLStreamReader reader = inputFactory.createXMLStreamReader(new StringReader(document.toString()));
+        int index = 0;
+        while (reader.hasNext()) {
+            if (reader.next() == XMLStreamConstants.START_ELEMENT && reader.getLocalName().equals("e")) {
+                expected.put(names.get(index++), reader.getElementText());
+            }
+        }
+
+        assertFalse(expected.isEmpty());
+        assertEquals(expected, NamedEntityInputStream.getEntities(),
+                "named-entities.properties out of sync with the DTD");
+    }
+
+    @Test
+    public void testReplaceEntities() throws IOException {
+        assertEquals("<math a=\"&#x3B1;\"><mi>&#x3B1;&#x2242;&#x338;x</mi></math>",
+                replace("<math a=\"&alpha;\"><mi>&alpha;&NotEqualTilde;x</mi></math>"));
+    }
+
+    @Test
+    public void testKeepOtherReferences() throws IOException {
+        final String input = "<mo>&lt;&amp;&#945;&#x3B1;&unknown;&alpha &alpha<&</mo>";
+        assertEquals(input, replace(input));
+    }
+
+    @Test
+    public void testKeepSections() throws IOException {
+        final String input = "<math><!-- &alpha; -- --><![CDATA[&alpha;]]]]><?pi &alpha; ?>&alpha;</math>";
+        assertEquals("<math><!-- &alpha; -- --><![CDATA[&alpha;]]]]><?pi &alpha; ?>&#x3B1;</math>",
+                replace(input));
+    }
+
+    @Test
+    public void testDoNotWaitForInputAfterMarkupStart() throws IOException {
+        final ChunkedInputStream chunked = new ChunkedInputStream();
+        final InputStream in = new NamedEntityInputStream(chunked);
+        final byte[] buffer = new byte[100];
+
+        chunked.add("<m><");
+        assertEquals("<m><", new String(buffer, 0, in.read(buffer), StandardCharsets.US_ASCII));
+        chunked.add("!-- &alpha; --><");
+        assertEquals("!-- &alpha; --><", new String(buffer, 0, in.read(buffer), StandardCharsets.US_ASCII));
+        chunked.add("/m>&alpha;");
+        assertEquals("/m>&#x3B1;", new String(buffer, 0, in.read(buffer), StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void testParseWithoutDTD() throws Exception {
+        final String input = "<math xmlns=\"http://www.w3.org/1998/Math/MathML\"><mi>&alpha;</mi></math>";
+        final XMLStreamReader reader = Settings.setupXMLInputFactory().createXMLStreamReader(
+                new NamedEntityInputStream(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8))));
+        reader.nextTag();
+        reader.nextTag();
+        assertEquals("\u03b1", reader.getElementText());
+    }
+
+    private static String replace(String input) throws IOException {
+        final InputStream in = new NamedEntityInputStream(
+                new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)));
+        return IOUtils.toString(in, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Stream of the chunks added so far, which fails instead of blocking when
+     * read after all of them.
+     */
+    private static class ChunkedInputStream extends InputStream {
+
+        private final StringBuilder data = new StringBuilder();
+        private int index = 0;
+
+        void add(String chunk) {
+            data.append(chunk);
+        }
+
+        @Override
+        public int read() {
+            if (index == data.length()) {
+                throw new AssertionError("read would block");
+            }
+            return data.charAt(index++);
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            final int count = Math.min(length, Math.max(available(), 1));
+            for (int i = 0; i < count; i++) {
+                buffer[offset + i] = (byte) read();
+            }
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return data.length() - index;
+        }
+
+    }
+
+}
@@ -0,0 +1,74 @@
+/**
+ * Copyright 2013 MIR@MU Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cz.muni.fi.mir.mathmlcanonicalization.utils;
+
+import java.text.Normalizer;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test cases for NormalizationCache class.
+ */
+public class NormalizationCacheTest {
+
+    @Test
+    public void testNormalize() {
+        final NormalizationCache cache = new NormalizationCache(100);
+        for (Normalizer.Form form : Normalizer.Form.values()) {
+            for (String text : new String[]{"x", "\u00bd", "\ufb01", "e\u0301", "\u00e9", "\u2062", "\u03b1 + 1"}) {
+                assertEquals(Normalizer.normalize(text, form), cache.normalize(text, form));
+                assertEquals(Normalizer.normalize(text, form), cache.normalize(text, form));
+            }
+        }
+    }
+
+    @Test
+    public void testCountHits() {
+        final NormalizationCache cache = new NormalizationCache(100);
+        final String ascii = "sin";
+        assertSame(ascii, cache.normalize(ascii, Normalizer.Form.NFKD));
+        assertEquals("1\u20442", cache.normalize("\u00bd", Normalizer.Form.NFKD));
+        assertEquals("1\u20442", cache.normalize("\u00bd", Normalizer.Form.NFKD));
+        assertEquals("\u00bd", cache.normalize("\u00bd", Normalizer.Form.NFC));
+
+        assertEquals(1, cache.getAsciiCount());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+        assertEquals(2, cache.getEntryCount());
+        assertEquals(0.5, cache.getHitRate(), 1e-9);
+    }
+
+    @Test
+    public void testBounded() {
+        final NormalizationCache cache = new NormalizationCache(10);
+        for (int i = 0; i < 100; i++) {
+            final String text = "\u03b1" + i;
+            assertEquals(text, cache.normalize(text, Normalizer.Form.NFC));
+            assertTrue(cache.getEntryCount() <= cache.getMaxEntries());
+        }
+        assertTrue(cache.getEvictionCount() > 0);
+
+        // long texts are not cached
+        cache.clear();
+        final StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            text.append('\u00bd');
+        }
+        cache.normalize(text.toString(), Normalizer.Form.NFKC);
+        assertEquals(0, cache.getEntryCount());
+    }
+
+}
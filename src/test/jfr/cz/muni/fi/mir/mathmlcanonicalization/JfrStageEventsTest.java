@@ -0,0 +1,81 @@
+/**
+ * Copyright 2013 MIR@MU Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cz.muni.fi.mir.mathmlcanonicalization;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Test cases for JfrStageEvents class.
+ */
+public class JfrStageEventsTest {
+
+    private static final String DOCUMENT_EVENT = "cz.muni.fi.mir.mathmlcanonicalization.Document";
+    private static final String STAGE_EVENT = "cz.muni.fi.mir.mathmlcanonicalization.Stage";
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void shouldRecordStages() throws Exception {
+        assertTrue(StageEvents.EVENTS instanceof JfrStageEvents);
+        final byte[] input = ("<math xmlns=\"http://www.w3.org/1998/Math/MathML\">"
+                + "<mfenced><mi>x</mi></mfenced></math>").getBytes(StandardCharsets.UTF_8);
+        final MathMLCanonicalizer canonicalizer = MathMLCanonicalizer.getDefaultCanonicalizer();
+        canonicalizer.setEnforcingXHTMLPlusMathMLDTD(true);
+
+        final Path file = directory.resolve("canonicalization.jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable(DOCUMENT_EVENT);
+            recording.enable(STAGE_EVENT);
+            recording.start();
+            canonicalizer.canonicalize(new ByteArrayInputStream(input), new ByteArrayOutputStream());
+            recording.stop();
+            recording.dump(file);
+        }
+
+        final List<String> stages = new ArrayList<>();
+        int documents = 0;
+        for (RecordedEvent event : RecordingFile.readAllEvents(file)) {
+            if (event.getEventType().getName().equals(DOCUMENT_EVENT)) {
+                documents++;
+                assertEquals(input.length, event.getLong("documentSize"));
+            } else if (event.getEventType().getName().equals(STAGE_EVENT)) {
+                final String module = event.getString("module");
+                stages.add(module == null ? event.getString("stage") : module);
+                assertEquals(input.length, event.getLong("documentSize"));
+            }
+        }
+        assertEquals(1, documents);
+        assertTrue(stages.contains(StageEvents.PARSE), stages.toString());
+        assertTrue(stages.contains("MrowNormalizer"), stages.toString());
+        assertTrue(stages.contains(StageEvents.SERIALIZE), stages.toString());
+    }
+
+}